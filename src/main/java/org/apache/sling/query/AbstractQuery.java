@@ -21,16 +21,26 @@ package org.apache.sling.query;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import org.apache.sling.query.api.AdmissionController;
+import org.apache.sling.query.api.ExecutionBudget;
+import org.apache.sling.query.api.QueryOptions;
 import org.apache.sling.query.api.SearchStrategy;
+import org.apache.sling.query.api.internal.ElementToIteratorFunction;
 import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
 import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.api.internal.TreeCopy;
 import org.apache.sling.query.api.internal.TreeProvider;
 import org.apache.sling.query.impl.function.AddFunction;
 import org.apache.sling.query.impl.function.ChildrenFunction;
@@ -39,11 +49,13 @@ import org.apache.sling.query.impl.function.CompositeFunction;
 import org.apache.sling.query.impl.function.DescendantFunction;
 import org.apache.sling.query.impl.function.FilterFunction;
 import org.apache.sling.query.impl.function.FindFunction;
+import org.apache.sling.query.impl.function.HybridFindFunction;
 import org.apache.sling.query.impl.function.HasFunction;
 import org.apache.sling.query.impl.function.IdentityFunction;
 import org.apache.sling.query.impl.function.LastFunction;
 import org.apache.sling.query.impl.function.NextFunction;
 import org.apache.sling.query.impl.function.NotFunction;
+import org.apache.sling.query.impl.function.ParallelFunction;
 import org.apache.sling.query.impl.function.ParentFunction;
 import org.apache.sling.query.impl.function.ParentsFunction;
 import org.apache.sling.query.impl.function.PrevFunction;
@@ -55,8 +67,12 @@ import org.apache.sling.query.impl.iterator.OptionDecoratingIterator;
 import org.apache.sling.query.impl.iterator.OptionStrippingIterator;
 import org.apache.sling.query.impl.predicate.IterableContainsPredicate;
 import org.apache.sling.query.impl.predicate.RejectingPredicate;
+import org.apache.sling.query.impl.push.BranchingPipeline;
+import org.apache.sling.query.impl.push.PushPipeline;
+import org.apache.sling.query.impl.selector.SelectivityEstimator;
 import org.apache.sling.query.impl.selector.SelectorFunction;
 import org.apache.sling.query.impl.util.LazyList;
+import org.apache.sling.query.impl.util.OriginalElementsList;
 import org.osgi.annotation.versioning.ProviderType;
 
 @ProviderType
@@ -64,12 +80,27 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
 
     protected final List<Function<?, ?>> functions = new ArrayList<>();
 
+    // the functions created again for a copy of the tree, see openCopy()
+    private final List<Function<TreeCopy<T>, Function<?, ?>>> factories = new ArrayList<>();
+
     private final List<T> initialCollection;
 
     private final SearchStrategy searchStrategy;
 
     private final TreeProvider<T> provider;
 
+    private Executor executor;
+
+    private int maxInFlight;
+
+    private AdmissionController admission;
+
+    // the functions use elements of the original tree, so they can't be copied
+    private boolean usesElements;
+
+    // one of the selectors searches the subtree of each matched element
+    private boolean subtreeSelectors;
+
     AbstractQuery(TreeProvider<T> provider, T[] initialCollection, SearchStrategy strategy) {
         this.provider = provider;
         this.initialCollection = new ArrayList<>(Arrays.asList(initialCollection));
@@ -77,10 +108,25 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
     }
 
     protected AbstractQuery(AbstractQuery<T, Q> original, SearchStrategy searchStrategy) {
+        this(original, searchStrategy, original.provider);
+    }
+
+    // not protected, as the exported package can't refer to the internal API
+    AbstractQuery(AbstractQuery<T, Q> original, TreeProvider<T> provider) {
+        this(original, original.searchStrategy, provider);
+    }
+
+    private AbstractQuery(AbstractQuery<T, Q> original, SearchStrategy searchStrategy, TreeProvider<T> provider) {
         this.functions.addAll(original.functions);
+        this.factories.addAll(original.factories);
         this.initialCollection = new ArrayList<>(original.initialCollection);
         this.searchStrategy = searchStrategy;
-        this.provider = original.provider;
+        this.provider = provider;
+        this.executor = original.executor;
+        this.maxInFlight = original.maxInFlight;
+        this.admission = original.admission;
+        this.usesElements = original.usesElements;
+        this.subtreeSelectors = original.subtreeSelectors;
     }
 
     /**
@@ -88,12 +134,64 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      */
     @Override
     public Iterator<T> iterator() {
+        if (admission != null && isHeavy()) {
+            return evaluateAdmitted().iterator();
+        }
+        return createIterator();
+    }
+
+    // the permit is held only while the query is evaluated, never by a lazy reader
+    private List<T> evaluateAdmitted() {
+        List<T> result = new ArrayList<>();
+        forEach(result::add);
+        return result;
+    }
+
+    private Iterator<T> createIterator() {
         IteratorToIteratorFunction<T> f = new CompositeFunction<>(functions);
         Iterator<Option<T>> iterator = f.apply(new OptionDecoratingIterator<>(initialCollection.iterator()));
         iterator = new EmptyElementFilter<>(iterator);
         return new OptionStrippingIterator<>(iterator);
     }
 
+    /**
+     * Evaluate the collection in the push mode, passing each element to the
+     * action as soon as it's found, without wrapping it into the intermediate
+     * iterators of the subsequent functions.
+     *
+     * @param action
+     *            Action invoked for each element
+     */
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        forEachWhile(element -> {
+            action.accept(element);
+            return true;
+        });
+    }
+
+    /**
+     * Evaluate the collection in the push mode, passing each element to the
+     * action as soon as it's found. The evaluation stops when the action returns
+     * false, so the remaining elements are never produced.
+     *
+     * @param action
+     *            Action invoked for each element, returning false if no more
+     *            elements should be pushed
+     */
+    public void forEachWhile(Predicate<? super T> action) {
+        if (admission != null && isHeavy()) {
+            admission.acquire();
+            try {
+                new PushPipeline<T>(functions).run(initialCollection, action);
+            } finally {
+                admission.release();
+            }
+        } else {
+            new PushPipeline<T>(functions).run(initialCollection, action);
+        }
+    }
+
     public Stream<T> stream() {
         return StreamSupport.stream(this.spliterator(), false);
     }
@@ -106,7 +204,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q add(T... resources) {
-        return function(new AddFunction<>(Arrays.asList(resources)));
+        return usingElements(function(p -> new AddFunction<>(Arrays.asList(resources))));
     }
 
     /**
@@ -117,7 +215,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q add(Iterable<T> iterable) {
-        return function(new AddFunction<>(iterable));
+        return usingElements(function(p -> new AddFunction<>(iterable)));
     }
 
     /**
@@ -126,16 +224,179 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return List containing all elements from the collection.
      */
     public List<T> asList() {
+        if (admission != null && isHeavy()) {
+            return evaluateAdmitted();
+        }
         return new LazyList<>(iterator());
     }
 
+    /**
+     * Evaluate the collection on the executor, so a few independent queries can
+     * be evaluated at once. The executor reads a copy of the tree (eg. a cloned
+     * resource resolver), which is closed afterwards. The elements of the list are
+     * read again from the original tree when it's accessed for the first time,
+     * so it should be done by the thread owning the tree. If the tree can't be
+     * copied or the query uses elements passed as arguments (eg.
+     * {@link AbstractQuery#add(Iterable)}), it's evaluated by the calling thread.
+     *
+     * @param executor
+     *            Executor evaluating the query
+     * @return future list containing all the elements
+     */
+    public CompletableFuture<List<T>> asListAsync(Executor executor) {
+        TreeCopy<T> copy = openCopy();
+        if (copy == null) {
+            return supplyNow(() -> {
+                List<T> result = new ArrayList<>();
+                forEach(result::add);
+                return Collections.unmodifiableList(result);
+            });
+        }
+        return supplyOnCopy(copy, executor, query -> {
+            List<T> result = new ArrayList<>();
+            query.forEach(result::add);
+            return result;
+        }).thenApply(result -> new OriginalElementsList<>(result, copy));
+    }
+
+    /**
+     * Evaluate the collection once and return a query starting from the result.
+     * The queries derived from the returned object don't repeat the functions
+     * applied so far, so it's useful if the same collection is used a few times.
+     *
+     * @return new SlingQuery object containing the evaluated elements
+     */
+    public Q cache() {
+        List<T> result = new ArrayList<>();
+        forEach(result::add);
+        Q cached = clone(this, this.searchStrategy);
+        AbstractQuery<T, Q> query = cached;
+        query.functions.clear();
+        query.factories.clear();
+        query.usesElements = false;
+        query.subtreeSelectors = false;
+        query.initialCollection.clear();
+        query.initialCollection.addAll(result);
+        return cached;
+    }
+
+    /**
+     * Evaluate a few queries at once. If some of them were derived from the same
+     * query (eg. the same find() followed by different filters), their shared
+     * functions are evaluated only once and the results are passed to all of them.
+     *
+     * @param queries
+     *            Queries to evaluate
+     * @param <T>
+     *            type of the elements
+     * @return lists of elements, in the order of the queries
+     */
+    protected static <T> List<List<T>> evaluateAll(List<? extends AbstractQuery<T, ?>> queries) {
+        List<List<T>> results = new ArrayList<>(Collections.nCopies(queries.size(), null));
+        for (int i = 0; i < queries.size(); i++) {
+            if (results.get(i) != null) {
+                continue;
+            }
+            AbstractQuery<T, ?> first = queries.get(i);
+            List<Integer> group = new ArrayList<>();
+            group.add(i);
+            int prefix = first.functions.size();
+            for (int j = i + 1; j < queries.size(); j++) {
+                AbstractQuery<T, ?> query = queries.get(j);
+                int common = getCommonPrefix(first.functions, query.functions);
+                if (results.get(j) == null && common > 0
+                        && first.initialCollection.equals(query.initialCollection)) {
+                    group.add(j);
+                    prefix = Math.min(prefix, common);
+                }
+            }
+
+            List<List<Function<?, ?>>> branches = new ArrayList<>();
+            boolean heavy = false;
+            for (int j : group) {
+                AbstractQuery<T, ?> query = queries.get(j);
+                branches.add(query.functions.subList(prefix, query.functions.size()));
+                heavy |= query.isHeavy();
+            }
+            BranchingPipeline<T> pipeline = new BranchingPipeline<>(first.functions.subList(0, prefix), branches,
+                    first.provider.getBudget(), BranchingPipeline.DEFAULT_MAX_BUFFERED);
+            List<List<T>> groupResults;
+            if (first.admission != null && heavy) {
+                first.admission.acquire();
+                try {
+                    groupResults = pipeline.run(first.initialCollection);
+                } finally {
+                    first.admission.release();
+                }
+            } else {
+                groupResults = pipeline.run(first.initialCollection);
+            }
+            for (int j = 0; j < group.size(); j++) {
+                results.set(group.get(j), groupResults.get(j));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Count the elements in the collection. If the collection is a result of
+     * {@link AbstractQuery#find(String)} using the {@link SearchStrategy#QUERY}
+     * strategy and the repository is able to evaluate the whole selector, the
+     * result size of the query is used and no elements are created.
+     *
+     * @return number of elements in the collection
+     */
+    @SuppressWarnings("unchecked")
+    public long count() {
+        if (isSingleFind()) {
+            long count = ((FindFunction<T>) functions.get(0)).count(initialCollection);
+            if (count >= 0) {
+                return count;
+            }
+        }
+        long[] count = new long[1];
+        forEach(element -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Count the elements on the executor, like {@link AbstractQuery#count()}.
+     *
+     * @param executor
+     *            Executor evaluating the query
+     * @return future number of elements in the collection
+     * @see AbstractQuery#asListAsync(Executor)
+     */
+    public CompletableFuture<Long> countAsync(Executor executor) {
+        TreeCopy<T> copy = openCopy();
+        if (copy == null) {
+            return supplyNow(this::count);
+        }
+        return supplyOnCopy(copy, executor, AbstractQuery::count);
+    }
+
+    /**
+     * Check if the collection contains any element. The evaluation stops at the
+     * first element found.
+     *
+     * @return true if the collection is not empty
+     */
+    public boolean exists() {
+        boolean[] found = new boolean[1];
+        forEachWhile(element -> {
+            found[0] = true;
+            return false;
+        });
+        return found[0];
+    }
+
     /**
      * Get list of the children for each Resource in the collection.
      *
      * @return new SlingQuery object transformed by this operation
      */
     public Q children() {
-        return function(new ChildrenFunction<>(provider));
+        return function(p -> new ChildrenFunction<>(p));
     }
 
     /**
@@ -146,7 +407,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q children(String filter) {
-        return function(new ChildrenFunction<>(provider), filter);
+        return function(p -> new ChildrenFunction<>(p), filter);
     }
 
     /**
@@ -157,7 +418,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q children(Predicate<T> filter) {
-        return function(new ChildrenFunction<>(provider), filter);
+        return function(p -> new ChildrenFunction<>(p), filter);
     }
 
     /**
@@ -168,7 +429,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q children(Iterable<T> filter) {
-        return function(new ChildrenFunction<>(provider), filter);
+        return function(p -> new ChildrenFunction<>(p), filter);
     }
 
     /**
@@ -180,7 +441,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q closest(String selector) {
-        return closest(parse(selector));
+        return selecting(function(inParallel(p -> new ClosestFunction<>(parse(p, selector), p))), selector);
     }
 
     /**
@@ -192,7 +453,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q closest(Iterable<T> iterable) {
-        return closest(new IterableContainsPredicate<>(iterable, provider));
+        return usingElements(function(p -> new ClosestFunction<>(new IterableContainsPredicate<>(iterable, p), p)));
     }
 
     /**
@@ -204,7 +465,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q closest(Predicate<T> predicate) {
-        return function(new ClosestFunction<>(predicate, provider));
+        return function(inParallel(p -> new ClosestFunction<>(predicate, p)));
     }
 
     /**
@@ -226,7 +487,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q filter(String selector) {
-        return function(new IdentityFunction<T>(), selector);
+        return function(p -> new IdentityFunction<T>(), selector);
     }
 
     /**
@@ -237,7 +498,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q filter(Predicate<T> predicate) {
-        return function(new FilterFunction<>(predicate));
+        return function(p -> new FilterFunction<>(predicate));
     }
 
     /**
@@ -248,7 +509,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q filter(Iterable<T> iterable) {
-        return function(new FilterFunction<>(new IterableContainsPredicate<>(iterable, provider)));
+        return usingElements(function(p -> new FilterFunction<>(new IterableContainsPredicate<>(iterable, p))));
     }
 
     /**
@@ -259,7 +520,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q find() {
-        return function(new FindFunction<>(searchStrategy, provider, ""));
+        return function(p -> new FindFunction<>(searchStrategy, p, ""));
     }
 
     /**
@@ -272,7 +533,18 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q find(String selector) {
-        return function(new FindFunction<>(searchStrategy, provider, selector), selector);
+        int queriedSegment = 0;
+        if (searchStrategy == SearchStrategy.QUERY) {
+            queriedSegment = SelectivityEstimator.findQueriedSegment(selector);
+        }
+        if (queriedSegment > 0) {
+            int segment = queriedSegment;
+            return selecting(function(p -> new HybridFindFunction<>(p, selector, segment)), selector);
+        }
+        Q newQuery = clone(this, this.searchStrategy);
+        addFunction(newQuery, p -> new FindFunction<>(searchStrategy, p, selector));
+        addFunction(newQuery, p -> new SelectorFunction<>(selector, p, searchStrategy, true));
+        return selecting(newQuery, selector);
     }
 
     /**
@@ -285,7 +557,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q find(Predicate<T> predicate) {
-        return function(new FindFunction<>(searchStrategy, provider, ""), predicate);
+        return function(p -> new FindFunction<>(searchStrategy, p, ""), predicate);
     }
 
     /**
@@ -298,7 +570,8 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q find(Iterable<T> iterable) {
-        return function(new DescendantFunction<>(new LazyList<>(iterable.iterator()), provider));
+        return usingElements(
+                function(p -> new DescendantFunction<>(new LazyList<>(iterable.iterator(), p.getBudget()), p)));
     }
 
     /**
@@ -320,7 +593,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q has(String selector) {
-        return function(new HasFunction<>(selector, searchStrategy, provider));
+        return selecting(function(inParallel(p -> new HasFunction<>(selector, searchStrategy, p))), selector);
     }
 
     /**
@@ -332,7 +605,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q has(Predicate<T> predicate) {
-        return function(new HasFunction<>(predicate, searchStrategy, provider));
+        return function(inParallel(p -> new HasFunction<>(predicate, searchStrategy, p)));
     }
 
     /**
@@ -344,7 +617,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q has(Iterable<T> iterable) {
-        return function(new HasFunction<>(iterable, provider));
+        return usingElements(function(p -> new HasFunction<>(iterable, p)));
     }
 
     /**
@@ -353,7 +626,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q last() {
-        return function(new LastFunction<T>());
+        return function(p -> new LastFunction<T>());
     }
 
     /**
@@ -362,7 +635,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q next() {
-        return function(new NextFunction<>(provider));
+        return function(p -> new NextFunction<>(p));
     }
 
     /**
@@ -375,7 +648,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q next(String selector) {
-        return function(new NextFunction<>(provider), selector);
+        return function(p -> new NextFunction<>(p), selector);
     }
 
     /**
@@ -388,7 +661,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q next(Predicate<T> predicate) {
-        return function(new NextFunction<>(provider), predicate);
+        return function(p -> new NextFunction<>(p), predicate);
     }
 
     /**
@@ -401,7 +674,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q next(Iterable<T> iterable) {
-        return function(new NextFunction<>(provider), iterable);
+        return function(p -> new NextFunction<>(p), iterable);
     }
 
     /**
@@ -410,7 +683,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q nextAll() {
-        return function(new NextFunction<>(new RejectingPredicate<>(), provider));
+        return function(p -> new NextFunction<>(new RejectingPredicate<>(), p));
     }
 
     /**
@@ -422,7 +695,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q nextAll(String selector) {
-        return function(new NextFunction<>(new RejectingPredicate<>(), provider), selector);
+        return function(p -> new NextFunction<>(new RejectingPredicate<>(), p), selector);
     }
 
     /**
@@ -434,7 +707,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q nextAll(Predicate<T> predicate) {
-        return function(new NextFunction<>(new RejectingPredicate<>(), provider), predicate);
+        return function(p -> new NextFunction<>(new RejectingPredicate<>(), p), predicate);
     }
 
     /**
@@ -446,7 +719,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q nextAll(Iterable<T> iterable) {
-        return function(new NextFunction<>(new RejectingPredicate<>(), provider), iterable);
+        return function(p -> new NextFunction<>(new RejectingPredicate<>(), p), iterable);
     }
 
     /**
@@ -458,7 +731,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q nextUntil(String until) {
-        return function(new NextFunction<>(parse(until), provider));
+        return selecting(function(p -> new NextFunction<>(parse(p, until), p)), until);
     }
 
     /**
@@ -470,7 +743,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q nextUntil(Predicate<T> predicate) {
-        return function(new NextFunction<>(predicate, provider));
+        return function(p -> new NextFunction<>(predicate, p));
     }
 
     /**
@@ -482,7 +755,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q nextUntil(Iterable<T> iterable) {
-        return nextUntil(new IterableContainsPredicate<>(iterable, provider));
+        return usingElements(nextUntil(new IterableContainsPredicate<>(iterable, provider)));
     }
 
     /**
@@ -493,7 +766,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q not(String selector) {
-        return function(new NotFunction<>(parse(selector)));
+        return selecting(function(p -> new NotFunction<>(parse(p, selector), p.getBudget())), selector);
     }
 
     /**
@@ -504,7 +777,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q not(Predicate<T> predicate) {
-        return function(new FilterFunction<>(new RejectingPredicate<>(predicate)));
+        return function(p -> new FilterFunction<>(new RejectingPredicate<>(predicate)));
     }
 
     /**
@@ -515,7 +788,31 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q not(Iterable<T> iterable) {
-        return not(new IterableContainsPredicate<>(iterable, provider));
+        return usingElements(not(new IterableContainsPredicate<>(iterable, provider)));
+    }
+
+    /**
+     * Evaluate the subsequent {@link AbstractQuery#has(String)} and
+     * {@link AbstractQuery#closest(String)} functions for a few elements at once,
+     * using the executor. The order of the results doesn't change. The elements
+     * are processed with at most maxInFlight copies of the tree (eg. cloned
+     * resource resolvers), which are reused by the subsequent elements and closed
+     * once they're no longer needed; if the tree can't be copied, the element is
+     * processed on the calling thread. The predicates passed to these functions
+     * are called concurrently, with the elements of the copies.
+     *
+     * @param executor
+     *            Executor running the functions, null to evaluate them sequentially
+     * @param maxInFlight
+     *            Maximum number of elements evaluated at once
+     * @return new SlingQuery object transformed by this operation
+     */
+    public Q parallel(Executor executor, int maxInFlight) {
+        Q newQuery = clone(this, this.searchStrategy);
+        AbstractQuery<T, Q> query = newQuery;
+        query.executor = maxInFlight > 1 ? executor : null;
+        query.maxInFlight = maxInFlight;
+        return newQuery;
     }
 
     /**
@@ -524,7 +821,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q parent() {
-        return function(new ParentFunction<>(provider));
+        return function(p -> new ParentFunction<>(p));
     }
 
     /**
@@ -533,7 +830,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q parents() {
-        return function(new ParentsFunction<>(new RejectingPredicate<>(), provider));
+        return function(p -> new ParentsFunction<>(new RejectingPredicate<>(), p));
     }
 
     /**
@@ -545,7 +842,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q parents(String selector) {
-        return function(new ParentsFunction<>(new RejectingPredicate<>(), provider), selector);
+        return function(p -> new ParentsFunction<>(new RejectingPredicate<>(), p), selector);
     }
 
     /**
@@ -557,7 +854,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q parents(Predicate<T> predicate) {
-        return function(new ParentsFunction<>(new RejectingPredicate<>(), provider), predicate);
+        return function(p -> new ParentsFunction<>(new RejectingPredicate<>(), p), predicate);
     }
 
     /**
@@ -569,7 +866,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q parents(Iterable<T> iterable) {
-        return function(new ParentsFunction<>(new RejectingPredicate<>(), provider), iterable);
+        return function(p -> new ParentsFunction<>(new RejectingPredicate<>(), p), iterable);
     }
 
     /**
@@ -581,7 +878,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q parentsUntil(String until) {
-        return function(new ParentsFunction<>(parse(until), provider));
+        return selecting(function(p -> new ParentsFunction<>(parse(p, until), p)), until);
     }
 
     /**
@@ -593,7 +890,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q parentsUntil(Predicate<T> predicate) {
-        return function(new ParentsFunction<>(predicate, provider));
+        return function(p -> new ParentsFunction<>(predicate, p));
     }
 
     /**
@@ -605,7 +902,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q parentsUntil(Iterable<T> iterable) {
-        return parentsUntil(new IterableContainsPredicate<>(iterable, provider));
+        return usingElements(parentsUntil(new IterableContainsPredicate<>(iterable, provider)));
     }
 
     /**
@@ -614,7 +911,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prev() {
-        return function(new PrevFunction<>(provider));
+        return function(p -> new PrevFunction<>(p));
     }
 
     /**
@@ -627,7 +924,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prev(String selector) {
-        return function(new PrevFunction<>(null, provider), selector);
+        return function(p -> new PrevFunction<>(null, p), selector);
     }
 
     /**
@@ -640,7 +937,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prev(Predicate<T> predicate) {
-        return function(new PrevFunction<>(null, provider), predicate);
+        return function(p -> new PrevFunction<>(null, p), predicate);
     }
 
     /**
@@ -653,7 +950,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prev(Iterable<T> iterable) {
-        return function(new PrevFunction<>(null, provider), iterable);
+        return function(p -> new PrevFunction<>(null, p), iterable);
     }
 
     /**
@@ -662,7 +959,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prevAll() {
-        return function(new PrevFunction<>(new RejectingPredicate<>(), provider));
+        return function(p -> new PrevFunction<>(new RejectingPredicate<>(), p));
     }
 
     /**
@@ -674,7 +971,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prevAll(String selector) {
-        return function(new PrevFunction<>(new RejectingPredicate<>(), provider), selector);
+        return function(p -> new PrevFunction<>(new RejectingPredicate<>(), p), selector);
     }
 
     /**
@@ -686,7 +983,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prevAll(Predicate<T> predicate) {
-        return function(new PrevFunction<>(new RejectingPredicate<>(), provider), predicate);
+        return function(p -> new PrevFunction<>(new RejectingPredicate<>(), p), predicate);
     }
 
     /**
@@ -698,7 +995,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prevAll(Iterable<T> iterable) {
-        return function(new PrevFunction<>(new RejectingPredicate<>(), provider), iterable);
+        return function(p -> new PrevFunction<>(new RejectingPredicate<>(), p), iterable);
     }
 
     /**
@@ -710,7 +1007,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prevUntil(String until) {
-        return function(new PrevFunction<>(parse(until), provider));
+        return selecting(function(p -> new PrevFunction<>(parse(p, until), p)), until);
     }
 
     /**
@@ -722,7 +1019,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prevUntil(Predicate<T> predicate) {
-        return function(new PrevFunction<>(predicate, provider));
+        return function(p -> new PrevFunction<>(predicate, p));
     }
 
     /**
@@ -734,7 +1031,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q prevUntil(Iterable<T> iterable) {
-        return prevUntil(new IterableContainsPredicate<>(iterable, provider));
+        return usingElements(prevUntil(new IterableContainsPredicate<>(iterable, provider)));
     }
 
     /**
@@ -749,6 +1046,54 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
         return clone(this, strategy);
     }
 
+    /**
+     * Set options of the repository queries run by the subsequent functions using
+     * the {@link SearchStrategy#QUERY} strategy, eg. the index tag or the
+     * traversal behaviour.
+     *
+     * @param options
+     *            Query options
+     * @return new SlingQuery object transformed by this operation
+     */
+    public Q queryOptions(QueryOptions options) {
+        return clone(this, provider.withQueryOptions(options));
+    }
+
+    /**
+     * Evaluate the query only when it's admitted by the controller, if it
+     * traverses the tree using the {@link SearchStrategy#DFS} or
+     * {@link SearchStrategy#BFS} strategy, or if one of its selectors searches
+     * the subtree of each matched element, with a descendant segment (eg.
+     * {@code find("a b")}) or the {@code :has()} modifier. Other queries are
+     * evaluated as usual. The permit is held only while the query is evaluated,
+     * so a heavy query read with the {@link AbstractQuery#iterator()} or
+     * {@link AbstractQuery#asList()} is evaluated at once.
+     *
+     * @param controller
+     *            Admission controller, null to evaluate the query without it
+     * @return new SlingQuery object transformed by this operation
+     */
+    public Q admission(AdmissionController controller) {
+        Q newQuery = clone(this, this.searchStrategy);
+        AbstractQuery<T, Q> query = newQuery;
+        query.admission = controller;
+        return newQuery;
+    }
+
+    /**
+     * Charge the subsequent functions to the budget. The query throws
+     * {@link org.apache.sling.query.api.BudgetExceededException} when it visits
+     * too many elements, calls the tree provider too many times, the deadline
+     * passes or the budget is cancelled.
+     *
+     * @param budget
+     *            Execution budget, null to stop charging the subsequent functions
+     * @return new SlingQuery object transformed by this operation
+     */
+    public Q budget(ExecutionBudget budget) {
+        return clone(this, provider.withBudget(budget));
+    }
+
     /**
      * Return siblings for the given Ts.
      *
@@ -766,7 +1111,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q siblings(String selector) {
-        return function(new SiblingsFunction<>(provider), selector);
+        return function(p -> new SiblingsFunction<>(p), selector);
     }
 
     /**
@@ -777,7 +1122,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q siblings(Predicate<T> predicate) {
-        return function(new SiblingsFunction<>(provider), predicate);
+        return function(p -> new SiblingsFunction<>(p), predicate);
     }
 
     /**
@@ -788,7 +1133,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q siblings(Iterable<T> iterable) {
-        return function(new SiblingsFunction<>(provider), iterable);
+        return function(p -> new SiblingsFunction<>(p), iterable);
     }
 
     /**
@@ -802,7 +1147,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
         if (from < 0) {
             throw new IndexOutOfBoundsException();
         }
-        return function(new SliceFunction<T>(from));
+        return function(p -> new SliceFunction<T>(from));
     }
 
     /**
@@ -822,7 +1167,7 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
         if (from > to) {
             throw new IllegalArgumentException();
         }
-        return function(new SliceFunction<T>(from, to));
+        return function(p -> new SliceFunction<T>(from, to));
     }
 
     /**
@@ -833,42 +1178,172 @@ public abstract class AbstractQuery<T, Q extends AbstractQuery<T, Q>> implements
      * @return new SlingQuery object transformed by this operation
      */
     public Q unique() {
-        return function(new UniqueFunction<>());
+        return function(p -> new UniqueFunction<>(p.getBudget()));
     }
 
-    private Q function(Function<?, ?> function, Iterable<T> iterable) {
+    private Q function(FunctionFactory<T> factory, Iterable<T> iterable) {
         Q newQuery = clone(this, this.searchStrategy);
-        newQuery.functions.add(function);
-        newQuery.functions.add(new FilterFunction<>(new IterableContainsPredicate<>(iterable, provider)));
-        return newQuery;
+        addFunction(newQuery, factory);
+        addFunction(newQuery, p -> new FilterFunction<>(new IterableContainsPredicate<>(iterable, p)));
+        return usingElements(newQuery);
     }
 
-    private Q function(Function<?, ?> function, Predicate<T> predicate) {
+    private Q function(FunctionFactory<T> factory, Predicate<T> predicate) {
         Q newQuery = clone(this, this.searchStrategy);
-        newQuery.functions.add(function);
-        newQuery.functions.add(new FilterFunction<>(predicate));
+        addFunction(newQuery, factory);
+        addFunction(newQuery, p -> new FilterFunction<>(predicate));
         return newQuery;
     }
 
-    private Q function(Function<?, ?> function, String selector) {
+    private Q function(FunctionFactory<T> factory, String selector) {
         Q newQuery = clone(this, this.searchStrategy);
-        newQuery.functions.add(function);
-        newQuery.functions.add(new SelectorFunction<>(selector, provider, searchStrategy));
-        return newQuery;
+        addFunction(newQuery, factory);
+        addFunction(newQuery, p -> new SelectorFunction<>(selector, p, searchStrategy));
+        return selecting(newQuery, selector);
     }
 
-    private Q function(Function<?, ?> function) {
+    private Q function(FunctionFactory<T> factory) {
         Q newQuery = clone(this, this.searchStrategy);
-        newQuery.functions.add(function);
+        addFunction(newQuery, factory);
+        return newQuery;
+    }
+
+    private void addFunction(Q newQuery, FunctionFactory<T> factory) {
+        AbstractQuery<T, Q> query = newQuery;
+        TreeProvider<T> originalProvider = query.provider;
+        query.functions.add(factory.create(originalProvider));
+        query.factories.add(copy -> factory.create(copy.getProvider(originalProvider)));
+    }
+
+    private Q usingElements(Q newQuery) {
+        AbstractQuery<T, Q> query = newQuery;
+        query.usesElements = true;
+        return newQuery;
+    }
+
+    private Q selecting(Q newQuery, String selector) {
+        AbstractQuery<T, Q> query = newQuery;
+        query.subtreeSelectors |= SelectorFunction.searchesSubtrees(selector);
         return newQuery;
     }
 
-    private SelectorFunction<T> parse(String selector) {
-        return new SelectorFunction<>(selector, provider, searchStrategy);
+    /**
+     * Open a copy of the tree for another thread, eg. with a cloned resource
+     * resolver.
+     *
+     * @return copy of the tree or null if the query can't be evaluated with it
+     */
+    private TreeCopy<T> openCopy() {
+        if (usesElements || initialCollection.isEmpty() || factories.size() != functions.size()) {
+            return null;
+        }
+        return provider.openCopy(initialCollection.get(0));
+    }
+
+    // the same query reading the copy of the tree
+    private AbstractQuery<T, Q> onCopy(TreeCopy<T> copy) {
+        AbstractQuery<T, Q> query = clone(this, copy.getProvider(provider));
+        query.functions.clear();
+        for (Function<TreeCopy<T>, Function<?, ?>> factory : factories) {
+            query.functions.add(factory.apply(copy));
+        }
+        query.initialCollection.clear();
+        for (T element : initialCollection) {
+            T copied = copy.getElement(element);
+            if (copied != null) {
+                query.initialCollection.add(copied);
+            }
+        }
+        return query;
+    }
+
+    // the copy is closed by the executor, once the query is evaluated
+    private <R> CompletableFuture<R> supplyOnCopy(TreeCopy<T> copy, Executor executor,
+            Function<AbstractQuery<T, Q>, R> evaluation) {
+        try {
+            AbstractQuery<T, Q> query = onCopy(copy);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return evaluation.apply(query);
+                } finally {
+                    copy.close();
+                }
+            }, executor);
+        } catch (RuntimeException e) {
+            copy.close();
+            throw e;
+        }
+    }
+
+    // used if the tree can't be copied, so it's read only by the calling thread
+    private static <R> CompletableFuture<R> supplyNow(Supplier<R> supplier) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            future.complete(supplier.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // find() or find(String), optionally followed by its own selector filter
+    private boolean isSingleFind() {
+        if (functions.isEmpty() || functions.size() > 2 || !(functions.get(0) instanceof FindFunction)) {
+            return false;
+        }
+        return functions.size() == 1 || functions.get(1) instanceof SelectorFunction;
+    }
+
+    // the query walks whole subtrees or searches them for each matched element,
+    // so its cost depends on the size of the tree rather than on the input
+    private boolean isHeavy() {
+        if (subtreeSelectors) {
+            return true;
+        }
+        for (Function<?, ?> function : functions) {
+            if (function instanceof ParallelFunction) {
+                function = ((ParallelFunction<?>) function).getFunction();
+            }
+            if (function instanceof FindFunction && ((FindFunction<?>) function).isTraversal()) {
+                return true;
+            }
+            if (function instanceof HasFunction && ((HasFunction<?>) function).isTraversal()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the factory is called for each copy of the tree used by the executor
+    private FunctionFactory<T> inParallel(Function<TreeProvider<T>, ElementToIteratorFunction<T>> factory) {
+        Executor parallelExecutor = executor;
+        int parallelMaxInFlight = maxInFlight;
+        if (parallelExecutor == null) {
+            return factory::apply;
+        }
+        return p -> new ParallelFunction<>(factory, p, parallelExecutor, parallelMaxInFlight);
+    }
+
+    private static int getCommonPrefix(List<Function<?, ?>> functions1, List<Function<?, ?>> functions2) {
+        int i = 0;
+        while (i < functions1.size() && i < functions2.size() && functions1.get(i) == functions2.get(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private SelectorFunction<T> parse(TreeProvider<T> treeProvider, String selector) {
+        return new SelectorFunction<>(selector, treeProvider, searchStrategy);
     }
 
     protected abstract Q clone(AbstractQuery<T, Q> original, SearchStrategy strategy);
 
+    abstract Q clone(AbstractQuery<T, Q> original, TreeProvider<T> provider);
+
+    private interface FunctionFactory<T> {
+        Function<?, ?> create(TreeProvider<T> provider);
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -19,11 +19,14 @@
 
 package org.apache.sling.query;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.query.api.SearchStrategy;
+import org.apache.sling.query.api.internal.TreeProvider;
 import org.apache.sling.query.impl.iterator.AdaptToIterator;
 import org.apache.sling.query.impl.resource.ResourceTreeProvider;
 import org.osgi.annotation.versioning.ProviderType;
@@ -34,19 +37,29 @@ import org.osgi.annotation.versioning.ProviderType;
 @ProviderType
 public class SlingQuery extends AbstractQuery<Resource, SlingQuery> {
 
+    private final ResourceTreeProvider provider;
+
     private SlingQuery(AbstractQuery<Resource, SlingQuery> original, SearchStrategy strategy) {
         super(original, strategy);
+        this.provider = ((SlingQuery) original).provider;
+    }
+
+    private SlingQuery(AbstractQuery<Resource, SlingQuery> original, ResourceTreeProvider provider) {
+        super(original, provider);
+        this.provider = provider;
     }
 
-    private SlingQuery(Resource[] resources, SearchStrategy strategy) {
-        super(new ResourceTreeProvider(resources[0].getResourceResolver()), resources, strategy);
+    private SlingQuery(Resource[] resources, SearchStrategy strategy, ResourceTreeProvider provider) {
+        super(provider, resources, strategy);
+        this.provider = provider;
     }
 
     public static SlingQuery $(Resource... resources) {
         if (resources.length == 0) {
             throw new IllegalArgumentException("Initial collection can't be empty");
         } else {
-            return new SlingQuery(resources, SearchStrategy.QUERY);
+            return new SlingQuery(resources, SearchStrategy.QUERY,
+                    new ResourceTreeProvider(resources[0].getResourceResolver()));
         }
     }
 
@@ -54,6 +67,18 @@ public class SlingQuery extends AbstractQuery<Resource, SlingQuery> {
         return $(resolver.getResource("/"));
     }
 
+    /**
+     * Evaluate the queries at once. The functions shared by the queries derived
+     * from the same SlingQuery object are evaluated only once.
+     *
+     * @param queries
+     *            Queries to evaluate
+     * @return lists of the resources, in the order of the queries
+     */
+    public static List<List<Resource>> evaluateAll(SlingQuery... queries) {
+        return evaluateAll(Arrays.asList(queries));
+    }
+
     /**
      * Transform the whole collection to a new {@link Iterable} object, invoking
      * {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class)} method on each Resource. If some Resource
@@ -70,11 +95,46 @@ public class SlingQuery extends AbstractQuery<Resource, SlingQuery> {
         return () -> new AdaptToIterator<>(SlingQuery.this.iterator(), clazz);
     }
 
+    /**
+     * Set the number of rows read at once from the JCR queries, which are used by
+     * the {@link SearchStrategy#QUERY} strategy in the subsequent
+     * {@link AbstractQuery#find()} and {@link AbstractQuery#has(String)} functions.
+     * Each query is executed once and next page is read from its result only
+     * when the previous one has been consumed.
+     *
+     * @param pageSize
+     *            Number of rows in a page, 0 to fetch the whole result at once
+     * @return new SlingQuery object transformed by this operation
+     */
+    public SlingQuery queryPageSize(int pageSize) {
+        return new SlingQuery(this, provider.withQueryPageSize(pageSize));
+    }
+
+    /**
+     * Set the maximum number of input resources searched by a single JCR query in
+     * the subsequent {@link AbstractQuery#find()} calls using the
+     * {@link SearchStrategy#QUERY} strategy. Descendants of all resources in the
+     * batch are fetched at once and then assigned back to their roots.
+     *
+     * @param batchSize
+     *            Number of roots in a single query, 1 to query each resource
+     *            separately
+     * @return new SlingQuery object transformed by this operation
+     */
+    public SlingQuery queryBatchSize(int batchSize) {
+        return new SlingQuery(this, provider.withQueryBatchSize(batchSize));
+    }
+
     @Override
     protected SlingQuery clone(AbstractQuery<Resource, SlingQuery> original, SearchStrategy strategy) {
         return new SlingQuery(original, strategy);
     }
 
+    @Override
+    SlingQuery clone(AbstractQuery<Resource, SlingQuery> original, TreeProvider<Resource> provider) {
+        return new SlingQuery(original, (ResourceTreeProvider) provider);
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -0,0 +1,107 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.api;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Limits the number of heavy queries evaluated at once. A query is heavy if it
+ * traverses the tree with the {@link SearchStrategy#DFS} or
+ * {@link SearchStrategy#BFS} strategy, or if one of its selectors searches the
+ * subtree of each matched element. The other queries are not limited. A heavy
+ * query waits for its turn up to the timeout and then fails with
+ * {@link QueryRejectedException}. The controller should be shared by all the
+ * requests, eg. held by an OSGi component.
+ */
+@ProviderType
+public final class AdmissionController {
+
+    private final int maxHeavyQueries;
+
+    private final long timeout;
+
+    private final Semaphore permits;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param maxHeavyQueries maximum number of heavy queries evaluated at once
+     * @param timeout         how long a query may wait for its turn, 0 to reject
+     *                        it at once
+     * @param unit            unit of the timeout
+     */
+    public AdmissionController(int maxHeavyQueries, long timeout, TimeUnit unit) {
+        if (maxHeavyQueries < 1) {
+            throw new IllegalArgumentException("At least one heavy query has to be allowed");
+        }
+        this.maxHeavyQueries = maxHeavyQueries;
+        this.timeout = Math.max(unit.toNanos(timeout), 0);
+        this.permits = new Semaphore(maxHeavyQueries, true);
+    }
+
+    /**
+     * Wait until the heavy query can be evaluated. Each successful call has to
+     * be followed by {@link #release()}.
+     *
+     * @throws QueryRejectedException if the query has waited too long
+     */
+    public void acquire() {
+        try {
+            if (permits.tryAcquire(timeout, TimeUnit.NANOSECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.incrementAndGet();
+        throw new QueryRejectedException("Too many heavy queries, limit is " + maxHeavyQueries);
+    }
+
+    /**
+     * Let the next heavy query be evaluated. It has to be called once for each
+     * successful {@link #acquire()}, when the query has finished.
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * @return number of the heavy queries being evaluated
+     */
+    public int getRunningQueries() {
+        return maxHeavyQueries - permits.availablePermits();
+    }
+
+    /**
+     * @return number of the queries rejected so far
+     */
+    public long getRejectedQueries() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdmissionController[%d/%d,%d]", getRunningQueries(), maxHeavyQueries, rejected.get());
+    }
+}
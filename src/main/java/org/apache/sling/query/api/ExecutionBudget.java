@@ -0,0 +1,172 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Limits the work done by the queries using it. The tree provider charges the
+ * budget for each visited element and each call, and the buffering stages (eg.
+ * unique() or the selectors with positional modifiers) report the number of the
+ * elements they hold. {@link BudgetExceededException} is thrown once a limit is
+ * exceeded, the deadline has passed or the budget has been cancelled. The
+ * budget is shared by all the queries it was passed to, so it can be created
+ * once per request.
+ */
+@ProviderType
+public final class ExecutionBudget {
+
+    private final long maxNodes;
+
+    private final long maxProviderCalls;
+
+    private final long maxBufferedElements;
+
+    private final long deadline;
+
+    private final AtomicLong nodes = new AtomicLong();
+
+    private final AtomicLong providerCalls = new AtomicLong();
+
+    private final AtomicLong peakBufferedElements = new AtomicLong();
+
+    private volatile boolean cancelled;
+
+    /**
+     * @param maxNodes         maximum number of the visited elements, 0 for no
+     *                         limit
+     * @param maxProviderCalls maximum number of the tree provider calls (eg.
+     *                         listing children or running a query), 0 for no
+     *                         limit
+     * @param timeout          time after which the budget expires, counted from
+     *                         now, 0 for no deadline
+     * @param unit             unit of the timeout
+     */
+    public ExecutionBudget(long maxNodes, long maxProviderCalls, long timeout, TimeUnit unit) {
+        this(maxNodes, maxProviderCalls, 0, timeout, unit);
+    }
+
+    /**
+     * @param maxNodes            maximum number of the visited elements, 0 for
+     *                            no limit
+     * @param maxProviderCalls    maximum number of the tree provider calls, 0
+     *                            for no limit
+     * @param maxBufferedElements maximum number of the elements held by a
+     *                            single buffering stage, 0 for no limit
+     * @param timeout             time after which the budget expires, counted
+     *                            from now, 0 for no deadline
+     * @param unit                unit of the timeout
+     */
+    public ExecutionBudget(long maxNodes, long maxProviderCalls, long maxBufferedElements, long timeout,
+            TimeUnit unit) {
+        this.maxNodes = Math.max(maxNodes, 0);
+        this.maxProviderCalls = Math.max(maxProviderCalls, 0);
+        this.maxBufferedElements = Math.max(maxBufferedElements, 0);
+        this.deadline = timeout > 0 ? System.nanoTime() + unit.toNanos(timeout) : 0;
+    }
+
+    /**
+     * Stop all the queries using this budget. They will throw
+     * {@link BudgetExceededException} when they try to read the next element.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public long getVisitedNodes() {
+        return nodes.get();
+    }
+
+    public long getProviderCalls() {
+        return providerCalls.get();
+    }
+
+    /**
+     * @return the largest number of elements held by a single buffering stage
+     */
+    public long getPeakBufferedElements() {
+        return peakBufferedElements.get();
+    }
+
+    /**
+     * Charge the budget for a visited element.
+     *
+     * @throws BudgetExceededException if the budget has run out
+     */
+    public void visitNode() {
+        long visited = nodes.incrementAndGet();
+        if (maxNodes > 0 && visited > maxNodes) {
+            throw new BudgetExceededException("Visited more than " + maxNodes + " nodes");
+        }
+        check();
+    }
+
+    /**
+     * Charge the budget for a tree provider call.
+     *
+     * @throws BudgetExceededException if the budget has run out
+     */
+    public void callProvider() {
+        long calls = providerCalls.incrementAndGet();
+        if (maxProviderCalls > 0 && calls > maxProviderCalls) {
+            throw new BudgetExceededException("Made more than " + maxProviderCalls + " provider calls");
+        }
+        check();
+    }
+
+    /**
+     * Report the number of elements currently held by a buffering stage.
+     *
+     * @param size number of the buffered elements
+     * @throws BudgetExceededException if the stage holds too many elements
+     */
+    public void buffer(long size) {
+        peakBufferedElements.accumulateAndGet(size, Math::max);
+        if (maxBufferedElements > 0 && size > maxBufferedElements) {
+            throw new BudgetExceededException("Buffered more than " + maxBufferedElements + " elements");
+        }
+    }
+
+    /**
+     * @throws BudgetExceededException if the budget has been cancelled or the
+     *                                 deadline has passed
+     */
+    public void check() {
+        if (cancelled) {
+            throw new BudgetExceededException("Query has been cancelled");
+        }
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededException("Query deadline has passed");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExecutionBudget[%d/%d,%d/%d,%d/%d]", nodes.get(), maxNodes, providerCalls.get(),
+                maxProviderCalls, peakBufferedElements.get(), maxBufferedElements);
+    }
+}
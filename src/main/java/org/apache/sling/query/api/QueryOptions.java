@@ -0,0 +1,125 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Options of the repository queries run by the {@link SearchStrategy#QUERY}
+ * strategy. The object is immutable, each method returns a modified copy.
+ */
+@ProviderType
+public final class QueryOptions {
+
+    /**
+     * Behaviour of the repository when no index can be used for the query.
+     */
+    public enum Traversal {
+        DEFAULT, OK, WARN, FAIL
+    }
+
+    public static final QueryOptions DEFAULT = new QueryOptions(null, Traversal.DEFAULT, 0, 0);
+
+    private static final Pattern INDEX_TAG = Pattern.compile("[\\w-]+");
+
+    private final String indexTag;
+
+    private final Traversal traversal;
+
+    private final long limit;
+
+    private final long timeout;
+
+    private QueryOptions(String indexTag, Traversal traversal, long limit, long timeout) {
+        this.indexTag = indexTag;
+        this.traversal = traversal;
+        this.limit = limit;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param tag tag of the indexes that can be used by the query, null to use
+     *            any index
+     * @return new options object
+     */
+    public QueryOptions withIndexTag(String tag) {
+        if (tag != null && !INDEX_TAG.matcher(tag).matches()) {
+            throw new IllegalArgumentException("Invalid index tag: " + tag);
+        }
+        return new QueryOptions(tag, traversal, limit, timeout);
+    }
+
+    /**
+     * @param traversal what should happen if the query traverses the repository,
+     *                  {@link Traversal#FAIL} to reject such query
+     * @return new options object
+     */
+    public QueryOptions withTraversal(Traversal traversal) {
+        return new QueryOptions(indexTag, traversal == null ? Traversal.DEFAULT : traversal, limit, timeout);
+    }
+
+    /**
+     * @param limit maximum number of rows read from a single query, 0 for no
+     *              limit
+     * @return new options object
+     */
+    public QueryOptions withLimit(long limit) {
+        return new QueryOptions(indexTag, traversal, Math.max(limit, 0), timeout);
+    }
+
+    /**
+     * Reading rows from a query running longer than the timeout fails with the
+     * {@link BudgetExceededException}, so a slow query never yields a silently
+     * truncated result.
+     *
+     * @param timeout time after which the query is abandoned, 0 for no timeout
+     * @param unit    unit of the timeout
+     * @return new options object
+     */
+    public QueryOptions withTimeout(long timeout, TimeUnit unit) {
+        return new QueryOptions(indexTag, traversal, limit, Math.max(unit.toMillis(timeout), 0));
+    }
+
+    public String getIndexTag() {
+        return indexTag;
+    }
+
+    public Traversal getTraversal() {
+        return traversal;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return timeout in milliseconds, 0 if there's no timeout
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueryOptions[%s,%s,%d,%d]", indexTag, traversal, limit, timeout);
+    }
+}
@@ -0,0 +1,101 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.api.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Tokenising matcher of the {@code :contains(text)} modifier. The text is split
+ * into lower-case words once and a value matches if it contains all of them.
+ * The argument may be scoped to a single property with a leading
+ * {@code property=} prefix, like {@code :contains(jcr:title=sample email)}.
+ */
+public class FullTextMatcher {
+
+    private static final Pattern PROPERTY = Pattern.compile("^\\s*([^\\s=]+)\\s*=(.*)$", Pattern.DOTALL);
+
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final String property;
+
+    private final Set<String> terms;
+
+    public FullTextMatcher(String argument) {
+        String text = StringUtils.defaultString(argument);
+        Matcher matcher = PROPERTY.matcher(text);
+        if (matcher.matches()) {
+            this.property = matcher.group(1);
+            text = matcher.group(2);
+        } else {
+            this.property = null;
+        }
+        this.terms = Collections.unmodifiableSet(new LinkedHashSet<>(tokenize(text)));
+    }
+
+    /**
+     * @return the searched property or null if all properties are searched
+     */
+    public String getProperty() {
+        return property;
+    }
+
+    /**
+     * @return distinct lower-case words of the searched text
+     */
+    public Set<String> getTerms() {
+        return terms;
+    }
+
+    public boolean matches(Iterable<String> values) {
+        if (terms.isEmpty()) {
+            return true;
+        }
+        Set<String> remaining = new LinkedHashSet<>(terms);
+        for (String value : values) {
+            remaining.removeAll(tokenize(value));
+            if (remaining.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : SEPARATOR.split(text)) {
+            if (!token.isEmpty()) {
+                tokens.add(token.toLowerCase(Locale.ROOT));
+            }
+        }
+        return tokens;
+    }
+}
@@ -19,11 +19,26 @@
 
 package org.apache.sling.query.api.internal;
 
+import java.util.Objects;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
-
+/**
+ * Element of the pulled stream together with the id of the input element it
+ * was produced for. The argument ids let the functions like {@code :has()},
+ * {@code :not()} or the positional modifiers map their results back to their
+ * input, so each element is wrapped when it passes such a function. The push
+ * evaluation ({@code forEach()} and {@code forEachWhile()}) passes the bare
+ * elements through the functions which don't need the ids.
+ */
 public class Option<T> {
+    // empty options are immutable and created for most of the filtered elements
+    private static final Option<?>[] EMPTY = new Option<?>[1024];
+
+    static {
+        for (int i = 0; i < EMPTY.length; i++) {
+            EMPTY[i] = new Option<>(null, i);
+        }
+    }
+
     private final T element;
 
     private final int argumentId;
@@ -34,10 +49,17 @@ public class Option<T> {
     }
 
     public static <T> Option<T> of(T element, int argumentId) {
+        if (element == null) {
+            return empty(argumentId);
+        }
         return new Option<>(element, argumentId);
     }
 
+    @SuppressWarnings("unchecked")
     public static <T> Option<T> empty(int argumentId) {
+        if (argumentId >= 0 && argumentId < EMPTY.length) {
+            return (Option<T>) EMPTY[argumentId];
+        }
         return new Option<>(null, argumentId);
     }
 
@@ -73,11 +95,11 @@ public class Option<T> {
             return false;
         }
         Option<?> rhs = (Option<?>) obj;
-        return new EqualsBuilder().append(element, rhs.element).isEquals();
+        return Objects.equals(element, rhs.element);
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder().append(element).toHashCode();
+        return Objects.hashCode(element);
     }
 }
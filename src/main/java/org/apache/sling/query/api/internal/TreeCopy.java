@@ -0,0 +1,56 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.api.internal;
+
+/**
+ * Copy of the tree opened for a worker thread, so the elements can be processed
+ * concurrently, eg. with a cloned resource resolver.
+ *
+ * @see TreeProvider#openCopy(Object)
+ */
+public interface TreeCopy<T> {
+
+    /**
+     * @param provider provider of the original tree
+     * @return provider reading the copy, with the same settings as the given one
+     */
+    TreeProvider<T> getProvider(TreeProvider<T> provider);
+
+    /**
+     * @param original element of the original tree
+     * @return the same element read from the copy, null if it's not available
+     */
+    T getElement(T original);
+
+    /**
+     * Called on the thread which opened the copy, while the copy may be used by
+     * a worker thread or after it's been closed, so it can't read the copy.
+     *
+     * @param element element of the copy
+     * @return the same element read from the original tree, null if it's not
+     *         available
+     */
+    T getOriginal(T element);
+
+    /**
+     * Release the copy, called once it's no longer used by the worker threads.
+     */
+    void close();
+}
@@ -19,11 +19,16 @@
 
 package org.apache.sling.query.api.internal;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.function.Predicate;
 
+import org.apache.sling.query.api.ExecutionBudget;
+import org.apache.sling.query.api.QueryOptions;
 import org.apache.sling.query.impl.selector.parser.Attribute;
+import org.apache.sling.query.impl.selector.parser.Modifier;
 import org.apache.sling.query.impl.selector.parser.SelectorSegment;
 import org.osgi.annotation.versioning.ConsumerType;
 
@@ -37,9 +42,116 @@ public interface TreeProvider<T> {
 
     Predicate<T> getPredicate(String type, String name, List<Attribute> attributes);
 
+    /**
+     * @param matcher words searched by the {@code :contains()} modifier
+     * @return predicate matching elements which properties contain all the words
+     */
+    Predicate<T> getFullTextPredicate(FullTextMatcher matcher);
+
     Iterator<T> query(List<SelectorSegment> segment, T resource);
 
+    /**
+     * Query descendants of all the given roots at once. None of the roots is a
+     * descendant of another one, so each result belongs to exactly one subtree.
+     *
+     * @param segment selector segments
+     * @param roots   roots of the searched subtrees
+     * @return descendants of the roots, in any order
+     */
+    default Iterator<T> query(List<SelectorSegment> segment, List<T> roots) {
+        Iterator<T> rootIterator = roots.iterator();
+        return new Iterator<T>() {
+
+            private Iterator<T> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && rootIterator.hasNext()) {
+                    current = query(segment, rootIterator.next());
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * Count the descendants matching the segments, without creating them.
+     *
+     * @param segment selector segments
+     * @param root    root of the searched subtree
+     * @return number of the matching descendants or -1 if the query result
+     *         isn't exact and has to be filtered element by element
+     */
+    default long count(List<SelectorSegment> segment, T root) {
+        return -1;
+    }
+
+    /**
+     * @return maximum number of roots passed to a single
+     *         {@link #query(List, List)} call
+     */
+    default int getQueryBatchSize() {
+        return 1;
+    }
+
+    /**
+     * @param options options of the subsequent queries
+     * @return provider passing the options to the {@link #query(List, Object)}
+     *         calls, or this provider if it doesn't support them
+     */
+    default TreeProvider<T> withQueryOptions(QueryOptions options) {
+        return this;
+    }
+
+    /**
+     * @param budget budget charged for the subsequent calls, null for no budget
+     * @return provider enforcing the budget, or this provider if it doesn't
+     *         support them
+     */
+    default TreeProvider<T> withBudget(ExecutionBudget budget) {
+        return this;
+    }
+
+    /**
+     * @return budget reported to by the buffering stages, null if there's none
+     */
+    default ExecutionBudget getBudget() {
+        return null;
+    }
+
+    /**
+     * Open a copy of the tree, which can be read by another thread while this
+     * one is used, eg. with a cloned resource resolver.
+     *
+     * @param element first element which is going to be processed by the copy,
+     *                the copy may be reused for the other elements of the tree
+     * @return opened copy, null if the tree can't be read concurrently
+     */
+    default TreeCopy<T> openCopy(T element) {
+        return null;
+    }
+
+    default boolean isPushedDown(SelectorSegment segment, Modifier modifier) {
+        return false;
+    }
+
     boolean sameElement(T o1, T o2);
 
+    /**
+     * @param element tree element
+     * @return key, which is equal for the elements representing the same node
+     */
+    default Object getKey(T element) {
+        return element;
+    }
+
     boolean isDescendant(T root, T testedElement);
 }
@@ -17,7 +17,7 @@
  * under the License.
  */
 
-@Version("4.0.3")
+@Version("4.1.0")
 package org.apache.sling.query.api;
 
 import org.osgi.annotation.versioning.Version;
\ No newline at end of file
@@ -25,8 +25,11 @@ import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
 import org.apache.sling.query.api.internal.Option;
 import org.apache.sling.query.impl.iterator.MergingIterator;
 import org.apache.sling.query.impl.iterator.OptionDecoratingIterator;
+import org.apache.sling.query.impl.push.ExpandingSink;
+import org.apache.sling.query.impl.push.PushFunction;
+import org.apache.sling.query.impl.push.Sink;
 
-public class AddFunction<T> implements IteratorToIteratorFunction<T> {
+public class AddFunction<T> implements IteratorToIteratorFunction<T>, PushFunction<T> {
 
     private final Iterable<T> iterable;
 
@@ -40,4 +43,24 @@ public class AddFunction<T> implements IteratorToIteratorFunction<T> {
         return new MergingIterator<>(input, new OptionDecoratingIterator<>(iterable.iterator()));
     }
 
+    @Override
+    public Sink<T> push(Sink<T> downstream) {
+        return new Sink<T>() {
+            private boolean stopped;
+
+            @Override
+            public boolean accept(T element) {
+                stopped = !downstream.accept(element);
+                return !stopped;
+            }
+
+            @Override
+            public void complete() {
+                if (!stopped) {
+                    ExpandingSink.pushAll(iterable.iterator(), downstream);
+                }
+                downstream.complete();
+            }
+        };
+    }
 }
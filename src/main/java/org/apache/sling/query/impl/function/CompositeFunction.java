@@ -19,6 +19,7 @@
 
 package org.apache.sling.query.impl.function;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Function;
@@ -37,9 +38,40 @@ public class CompositeFunction<T> implements IteratorToIteratorFunction<T> {
     @Override
     public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
         Iterator<Option<T>> iterator = input;
-        for (Function<?, ?> f : functions) {
+        for (Function<?, ?> f : fuse(functions)) {
             iterator = new IteratorToIteratorFunctionWrapper<T>(f).apply(iterator);
         }
         return iterator;
     }
+
+    /**
+     * Drop the identity functions and merge the runs of consecutive
+     * element-wise functions, so each run is evaluated by a single iterator.
+     */
+    private static List<Function<?, ?>> fuse(List<Function<?, ?>> functions) {
+        List<Function<?, ?>> result = new ArrayList<>();
+        List<Function<?, ?>> run = new ArrayList<>();
+        for (Function<?, ?> f : functions) {
+            if (f instanceof IdentityFunction) {
+                continue;
+            }
+            if (FusedFunction.isFusible(f)) {
+                run.add(f);
+                continue;
+            }
+            addRun(result, run);
+            result.add(f);
+        }
+        addRun(result, run);
+        return result;
+    }
+
+    private static void addRun(List<Function<?, ?>> result, List<Function<?, ?>> run) {
+        if (run.size() == 1) {
+            result.add(run.get(0));
+        } else if (run.size() > 1) {
+            result.add(new FusedFunction<>(run));
+        }
+        run.clear();
+    }
 }
@@ -25,8 +25,10 @@ import java.util.function.Predicate;
 import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
 import org.apache.sling.query.api.internal.Option;
 import org.apache.sling.query.impl.iterator.FilteringIterator;
+import org.apache.sling.query.impl.push.PushFunction;
+import org.apache.sling.query.impl.push.Sink;
 
-public class FilterFunction<T> implements IteratorToIteratorFunction<T> {
+public class FilterFunction<T> implements IteratorToIteratorFunction<T>, PushFunction<T> {
 
     private final Predicate<T> predicate;
 
@@ -34,9 +36,27 @@ public class FilterFunction<T> implements IteratorToIteratorFunction<T> {
         this.predicate = predicate;
     }
 
+    Predicate<T> getPredicate() {
+        return predicate;
+    }
+
     @Override
     public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
         return new FilteringIterator<>(input, predicate);
     }
 
+    @Override
+    public Sink<T> push(Sink<T> downstream) {
+        return new Sink<T>() {
+            @Override
+            public boolean accept(T element) {
+                return !predicate.test(element) || downstream.accept(element);
+            }
+
+            @Override
+            public void complete() {
+                downstream.complete();
+            }
+        };
+    }
 }
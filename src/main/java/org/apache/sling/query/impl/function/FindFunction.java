@@ -19,21 +19,31 @@
 
 package org.apache.sling.query.impl.function;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
 import org.apache.sling.query.api.SearchStrategy;
-import org.apache.sling.query.api.internal.ElementToIteratorFunction;
+import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
+import org.apache.sling.query.api.internal.Option;
 import org.apache.sling.query.api.internal.TreeProvider;
+import org.apache.sling.query.impl.iterator.BatchQueryIterator;
+import org.apache.sling.query.impl.iterator.EmptyElementFilter;
+import org.apache.sling.query.impl.iterator.ExpandingIterator;
+import org.apache.sling.query.impl.iterator.OptionDecoratingIterator;
+import org.apache.sling.query.impl.iterator.OptionStrippingIterator;
 import org.apache.sling.query.impl.iterator.WarningIterator;
 import org.apache.sling.query.impl.iterator.tree.BfsTreeIterator;
 import org.apache.sling.query.impl.iterator.tree.DfsTreeIterator;
+import org.apache.sling.query.impl.push.ExpandingSink;
+import org.apache.sling.query.impl.push.PushFunction;
+import org.apache.sling.query.impl.push.Sink;
 import org.apache.sling.query.impl.selector.parser.Selector;
 import org.apache.sling.query.impl.selector.parser.SelectorParser;
 import org.apache.sling.query.impl.selector.parser.SelectorSegment;
 
-public class FindFunction<T> implements ElementToIteratorFunction<T> {
+public class FindFunction<T> implements IteratorToIteratorFunction<T>, PushFunction<T> {
 
     private final List<SelectorSegment> preFilteringSelector;
 
@@ -41,10 +51,14 @@ public class FindFunction<T> implements ElementToIteratorFunction<T> {
 
     private final SearchStrategy strategy;
 
+    // true if the segments passed to the query are the whole selector
+    private final boolean wholeSelector;
+
     public FindFunction(SearchStrategy searchStrategy, TreeProvider<T> provider, SelectorSegment preFilteringSelector) {
         this.strategy = searchStrategy;
         this.provider = provider;
         this.preFilteringSelector = Arrays.asList(preFilteringSelector);
+        this.wholeSelector = false;
     }
 
     public FindFunction(SearchStrategy searchStrategy, TreeProvider<T> provider, String preFilteringSelector) {
@@ -52,10 +66,62 @@ public class FindFunction<T> implements ElementToIteratorFunction<T> {
         this.provider = provider;
         List<Selector> selectors = SelectorParser.parse(preFilteringSelector);
         this.preFilteringSelector = SelectorParser.getFirstSegmentFromEachSelector(selectors);
+        boolean singleSegments = true;
+        for (Selector selector : selectors) {
+            singleSegments &= selector.getSegments().size() <= 1;
+        }
+        this.wholeSelector = singleSegments;
+    }
+
+    /**
+     * @return true if the function walks the whole subtrees instead of querying
+     *         them
+     */
+    public boolean isTraversal() {
+        return strategy != SearchStrategy.QUERY;
+    }
+
+    /**
+     * Count the descendants of the given roots matching the selector, without
+     * creating the elements. It's only possible if the provider evaluates the
+     * whole selector in the query.
+     *
+     * @param roots roots of the searched subtrees
+     * @return number of the matching descendants or -1 if the provider can't
+     *         count them
+     */
+    public long count(List<T> roots) {
+        if (strategy != SearchStrategy.QUERY || !wholeSelector) {
+            return -1;
+        }
+        long count = 0;
+        for (T root : roots) {
+            long rootCount = provider.count(preFilteringSelector, root);
+            if (rootCount < 0) {
+                return -1;
+            }
+            count += rootCount;
+        }
+        return count;
     }
 
     @Override
-    public Iterator<T> apply(T input) {
+    public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
+        if (strategy == SearchStrategy.QUERY && provider.getQueryBatchSize() > 1) {
+            return new BatchQueryIterator<>(input, provider, preFilteringSelector, provider.getQueryBatchSize());
+        }
+        return new ExpandingIterator<>(this::find, input);
+    }
+
+    @Override
+    public Sink<T> push(Sink<T> downstream) {
+        if (strategy == SearchStrategy.QUERY && provider.getQueryBatchSize() > 1) {
+            return new BatchQuerySink(downstream);
+        }
+        return new ExpandingSink<>(this::find, downstream);
+    }
+
+    private Iterator<T> find(T input) {
         Iterator<T> iterator;
         switch (strategy) {
         case BFS:
@@ -71,4 +137,44 @@ public class FindFunction<T> implements ElementToIteratorFunction<T> {
         }
         return new WarningIterator<>(iterator);
     }
-}
\ No newline at end of file
+
+    // collects the roots, so the descendants of a whole batch are queried at once
+    private class BatchQuerySink implements Sink<T> {
+
+        private final Sink<T> downstream;
+
+        private final List<T> roots = new ArrayList<>();
+
+        private boolean stopped;
+
+        private BatchQuerySink(Sink<T> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public boolean accept(T element) {
+            roots.add(element);
+            if (roots.size() >= provider.getQueryBatchSize()) {
+                flush();
+            }
+            return !stopped;
+        }
+
+        @Override
+        public void complete() {
+            flush();
+            downstream.complete();
+        }
+
+        private void flush() {
+            if (!stopped && !roots.isEmpty()) {
+                Iterator<Option<T>> result = new BatchQueryIterator<>(
+                        new OptionDecoratingIterator<>(roots.iterator()), provider, preFilteringSelector,
+                        roots.size());
+                stopped = !ExpandingSink.pushAll(new OptionStrippingIterator<>(new EmptyElementFilter<>(result)),
+                        downstream);
+            }
+            roots.clear();
+        }
+    }
+}
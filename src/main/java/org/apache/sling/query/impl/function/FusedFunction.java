@@ -0,0 +1,203 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.function;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.apache.sling.query.api.internal.ElementToIteratorFunction;
+import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
+import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.impl.iterator.AbstractIterator;
+
+/**
+ * A few consecutive element-wise functions (filters, expanding functions and
+ * slices) evaluated by a single iterator. The result, including the empty
+ * options and their argument ids, is the same as if each function was applied
+ * by its own iterator.
+ */
+public class FusedFunction<T> implements IteratorToIteratorFunction<T> {
+
+    private final List<Function<?, ?>> functions;
+
+    public FusedFunction(List<Function<?, ?>> functions) {
+        this.functions = new ArrayList<>(functions);
+    }
+
+    public static boolean isFusible(Function<?, ?> function) {
+        return function instanceof FilterFunction || function instanceof SliceFunction
+                || function instanceof ElementToIteratorFunction;
+    }
+
+    @Override
+    public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
+        return new FusedIterator(input, createStages());
+    }
+
+    // stateful stages (slices) are created for each iteration
+    @SuppressWarnings("unchecked")
+    private List<Stage<T>> createStages() {
+        List<Stage<T>> stages = new ArrayList<>();
+        for (Function<?, ?> f : functions) {
+            if (f instanceof FilterFunction) {
+                stages.add(new Stage<>(((FilterFunction<T>) f).getPredicate(), null, null));
+            } else if (f instanceof SliceFunction) {
+                stages.add(new Stage<>(null, null, new Slice(((SliceFunction<T>) f).getFrom(),
+                        ((SliceFunction<T>) f).getTo())));
+            } else {
+                stages.add(new Stage<>(null, (ElementToIteratorFunction<T>) f, null));
+            }
+        }
+        return stages;
+    }
+
+    private static class Stage<T> {
+
+        private final Predicate<T> filter;
+
+        private final ElementToIteratorFunction<T> expander;
+
+        private final Slice slice;
+
+        private Stage(Predicate<T> filter, ElementToIteratorFunction<T> expander, Slice slice) {
+            this.filter = filter;
+            this.expander = expander;
+            this.slice = slice;
+        }
+    }
+
+    private static class Slice {
+
+        private final int from;
+
+        private final int to;
+
+        private int current = -1;
+
+        private Slice(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static class Frame<T> {
+
+        private final Iterator<T> iterator;
+
+        private final int nextStage;
+
+        private Frame(Iterator<T> iterator, int nextStage) {
+            this.iterator = iterator;
+            this.nextStage = nextStage;
+        }
+    }
+
+    private class FusedIterator extends AbstractIterator<Option<T>> {
+
+        private final Iterator<Option<T>> input;
+
+        private final List<Stage<T>> stages;
+
+        private final Deque<Frame<T>> frames = new ArrayDeque<>();
+
+        private int argumentId;
+
+        private FusedIterator(Iterator<Option<T>> input, List<Stage<T>> stages) {
+            this.input = input;
+            this.stages = stages;
+        }
+
+        @Override
+        protected Option<T> getElement() {
+            while (!isSliceFinished()) {
+                Option<T> result;
+                Frame<T> frame = frames.peek();
+                if (frame == null) {
+                    if (!input.hasNext()) {
+                        return null;
+                    }
+                    Option<T> option = input.next();
+                    if (option.isEmpty()) {
+                        return option;
+                    }
+                    argumentId = option.getArgumentId();
+                    result = evaluate(option.getElement(), 0);
+                } else if (frame.iterator.hasNext()) {
+                    result = evaluate(frame.iterator.next(), frame.nextStage);
+                } else {
+                    frames.pop();
+                    continue;
+                }
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Pass the element through the stages, starting from the given one.
+         * Returns null if the element has been expanded and the next element
+         * should be taken from the new frame.
+         */
+        private Option<T> evaluate(T element, int stageIndex) {
+            if (element == null) {
+                return Option.empty(argumentId);
+            }
+            for (int i = stageIndex; i < stages.size(); i++) {
+                Stage<T> stage = stages.get(i);
+                if (stage.filter != null) {
+                    if (!stage.filter.test(element)) {
+                        return Option.empty(argumentId);
+                    }
+                } else if (stage.slice != null) {
+                    Slice slice = stage.slice;
+                    if (++slice.current < slice.from || slice.current > slice.to) {
+                        return Option.empty(argumentId);
+                    }
+                } else {
+                    Iterator<T> iterator = stage.expander.apply(element);
+                    if (!iterator.hasNext()) {
+                        return Option.empty(argumentId);
+                    }
+                    frames.push(new Frame<>(iterator, i + 1));
+                    return null;
+                }
+            }
+            return Option.of(element, argumentId);
+        }
+
+        // once a slice is over, no more elements can get through it
+        private boolean isSliceFinished() {
+            for (Stage<T> stage : stages) {
+                if (stage.slice != null && stage.slice.current > stage.slice.to) {
+                    frames.clear();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -37,14 +37,17 @@ public class HasFunction<T> implements ElementToIteratorFunction<T> {
 
     private final IteratorToIteratorFunction<T> filter;
 
+    private final boolean traversal;
+
     private HasFunction(FindFunction<T> findFunction, IteratorToIteratorFunction<T> filter) {
         this.findFunction = new IteratorToIteratorFunctionWrapper<T>(findFunction);
         this.filter = filter;
+        this.traversal = findFunction.isTraversal();
     }
 
     public HasFunction(String selectorString, SearchStrategy searchStrategy, TreeProvider<T> provider) {
         this(new FindFunction<T>(searchStrategy, provider, selectorString),
-                new SelectorFunction<T>(selectorString, provider, searchStrategy));
+                new SelectorFunction<T>(selectorString, provider, searchStrategy, true));
     }
 
     public HasFunction(Predicate<T> predicate, SearchStrategy searchStrategy, TreeProvider<T> provider) {
@@ -54,6 +57,15 @@ public class HasFunction<T> implements ElementToIteratorFunction<T> {
     public HasFunction(Iterable<T> iterable, TreeProvider<T> provider) {
         this.findFunction = new DescendantFunction<>(iterable, provider);
         this.filter = new IdentityFunction<>();
+        this.traversal = false;
+    }
+
+    /**
+     * @return true if the descendants of each element are found by walking the
+     *         subtree
+     */
+    public boolean isTraversal() {
+        return traversal;
     }
 
     @Override
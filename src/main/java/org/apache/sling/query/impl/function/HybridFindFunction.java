@@ -0,0 +1,153 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.function;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.apache.sling.query.api.internal.ElementToIteratorFunction;
+import org.apache.sling.query.api.internal.TreeProvider;
+import org.apache.sling.query.impl.iterator.AbstractIterator;
+import org.apache.sling.query.impl.iterator.WarningIterator;
+import org.apache.sling.query.impl.iterator.tree.DfsTreeIterator;
+import org.apache.sling.query.impl.selector.HierarchyOperator;
+import org.apache.sling.query.impl.selector.parser.SelectorParser;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+
+/**
+ * Evaluates a hierarchical selector, querying one of its segments rather than
+ * the first one. Each query result is checked against the subsequent segments
+ * by navigating down the tree and the elements matching the first segment are
+ * found among its ancestors. The selector can't contain modifiers and its
+ * segments have to be connected with the child or descendant operators. The
+ * resource type of the queried segment is checked only on the results, as the
+ * query would miss the resources inheriting it through their super types.
+ */
+public class HybridFindFunction<T> implements ElementToIteratorFunction<T> {
+
+    private final TreeProvider<T> provider;
+
+    private final List<SelectorSegment> segments;
+
+    private final List<Predicate<T>> predicates;
+
+    private final int queriedSegment;
+
+    /**
+     * @param provider       tree provider
+     * @param selector       selector with a single alternative
+     * @param queriedSegment index of the segment to be queried
+     */
+    public HybridFindFunction(TreeProvider<T> provider, String selector, int queriedSegment) {
+        this.provider = provider;
+        this.segments = SelectorParser.parse(selector).get(0).getSegments();
+        this.predicates = new ArrayList<>();
+        for (SelectorSegment s : segments) {
+            predicates.add(provider.getPredicate(s.getType(), s.getName(), s.getAttributes()));
+        }
+        this.queriedSegment = queriedSegment;
+    }
+
+    @Override
+    public Iterator<T> apply(T root) {
+        List<SelectorSegment> queried = Collections.singletonList(segments.get(queriedSegment).withoutResourceType());
+        return new MatchIterator(root, new WarningIterator<>(provider.query(queried, root)));
+    }
+
+    private boolean matchesForward(T element, int index) {
+        if (index == segments.size() - 1) {
+            return true;
+        }
+        Iterator<T> candidates;
+        if (getOperator(index + 1) == HierarchyOperator.CHILD) {
+            candidates = provider.listChildren(element);
+        } else {
+            candidates = new DfsTreeIterator<>(element, provider);
+        }
+        while (candidates.hasNext()) {
+            T candidate = candidates.next();
+            if (predicates.get(index + 1).test(candidate) && matchesForward(candidate, index + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private HierarchyOperator getOperator(int index) {
+        return HierarchyOperator.findByCharacter(segments.get(index).getHierarchyOperator());
+    }
+
+    private class MatchIterator extends AbstractIterator<T> {
+
+        private final T root;
+
+        private final Iterator<T> queryResult;
+
+        private final Set<Object> seen = new HashSet<>();
+
+        private final Deque<T> matches = new ArrayDeque<>();
+
+        private MatchIterator(T root, Iterator<T> queryResult) {
+            this.root = root;
+            this.queryResult = queryResult;
+        }
+
+        @Override
+        protected T getElement() {
+            while (matches.isEmpty() && queryResult.hasNext()) {
+                T element = queryResult.next();
+                if (predicates.get(queriedSegment).test(element) && matchesForward(element, queriedSegment)) {
+                    matchBackward(element, queriedSegment);
+                }
+            }
+            return matches.poll();
+        }
+
+        /**
+         * Walk up from the element matching the segment with the given index and
+         * collect the ancestors matching the first segment.
+         */
+        private void matchBackward(T element, int index) {
+            if (index == 0) {
+                if (seen.add(provider.getKey(element))) {
+                    matches.add(element);
+                }
+                return;
+            }
+            boolean descendant = getOperator(index) == HierarchyOperator.DESCENDANT;
+            T ancestor = provider.getParent(element);
+            while (ancestor != null && !provider.sameElement(root, ancestor)) {
+                if (predicates.get(index - 1).test(ancestor)) {
+                    matchBackward(ancestor, index - 1);
+                }
+                if (!descendant) {
+                    break;
+                }
+                ancestor = provider.getParent(ancestor);
+            }
+        }
+    }
+}
@@ -23,12 +23,18 @@ import java.util.Iterator;
 
 import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
 import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.impl.push.PushFunction;
+import org.apache.sling.query.impl.push.Sink;
 
-public class IdentityFunction<T> implements IteratorToIteratorFunction<T> {
+public class IdentityFunction<T> implements IteratorToIteratorFunction<T>, PushFunction<T> {
 
     @Override
     public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
         return input;
     }
 
+    @Override
+    public Sink<T> push(Sink<T> downstream) {
+        return downstream;
+    }
 }
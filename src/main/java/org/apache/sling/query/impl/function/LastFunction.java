@@ -24,12 +24,34 @@ import java.util.Iterator;
 import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
 import org.apache.sling.query.api.internal.Option;
 import org.apache.sling.query.impl.iterator.LastIterator;
+import org.apache.sling.query.impl.push.PushFunction;
+import org.apache.sling.query.impl.push.Sink;
 
-public class LastFunction<T> implements IteratorToIteratorFunction<T> {
+public class LastFunction<T> implements IteratorToIteratorFunction<T>, PushFunction<T> {
 
     @Override
     public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
         return new LastIterator<>(input);
     }
 
+    @Override
+    public Sink<T> push(Sink<T> downstream) {
+        return new Sink<T>() {
+            private T last;
+
+            @Override
+            public boolean accept(T element) {
+                last = element;
+                return true;
+            }
+
+            @Override
+            public void complete() {
+                if (last != null) {
+                    downstream.accept(last);
+                }
+                downstream.complete();
+            }
+        };
+    }
 }
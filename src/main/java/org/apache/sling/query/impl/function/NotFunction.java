@@ -21,21 +21,40 @@ package org.apache.sling.query.impl.function;
 
 import java.util.Iterator;
 
+import org.apache.sling.query.api.ExecutionBudget;
 import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
 import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.impl.iterator.FilteringIterator;
 import org.apache.sling.query.impl.iterator.ReverseIterator;
+import org.apache.sling.query.impl.predicate.RejectingPredicate;
+import org.apache.sling.query.impl.selector.SelectorFunction;
 
 public class NotFunction<T> implements IteratorToIteratorFunction<T> {
 
     private IteratorToIteratorFunction<T> function;
 
+    private final ExecutionBudget budget;
+
     public NotFunction(IteratorToIteratorFunction<T> function) {
+        this(function, null);
+    }
+
+    public NotFunction(IteratorToIteratorFunction<T> function, ExecutionBudget budget) {
         this.function = function;
+        this.budget = budget;
     }
 
+    /**
+     * A selector without positional modifiers is tested element by element, so
+     * the input doesn't have to be buffered and each element is rejected if it
+     * matches any of the alternatives.
+     */
     @Override
     public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
-        return new ReverseIterator<>(function, input);
+        if (function instanceof SelectorFunction && ((SelectorFunction<T>) function).isElementLocal()) {
+            return new FilteringIterator<>(input, new RejectingPredicate<>((SelectorFunction<T>) function));
+        }
+        return new ReverseIterator<>(function, input, budget);
     }
 
 }
@@ -0,0 +1,248 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.function;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.apache.sling.query.api.internal.ElementToIteratorFunction;
+import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
+import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.api.internal.TreeCopy;
+import org.apache.sling.query.api.internal.TreeProvider;
+import org.apache.sling.query.impl.iterator.AbstractIterator;
+import org.apache.sling.query.impl.iterator.ParallelIterator;
+
+/**
+ * Expands a few elements at once on the executor. The output is the same as
+ * produced by the wrapped function, including the order and the argument ids,
+ * but the result of each element is read as a whole, so it should be used only
+ * for functions returning a few elements, like has() or closest().
+ * <p>
+ * The tree can't be read by a few threads at once, so each element is
+ * processed with a copy of the tree (see {@link TreeProvider#openCopy(Object)}),
+ * using the function created for that copy. At most maxInFlight copies are open
+ * at once. A copy released while the reader waits for the next result is
+ * reused by the next element, otherwise it's closed, so no copy is left open
+ * once the reader stops. The copies are opened and their results are read back
+ * on the calling thread. Elements which can't get a copy are expanded on the
+ * calling thread.
+ */
+public class ParallelFunction<T> implements IteratorToIteratorFunction<T> {
+
+    private final Function<TreeProvider<T>, ElementToIteratorFunction<T>> factory;
+
+    private final TreeProvider<T> provider;
+
+    private final ElementToIteratorFunction<T> function;
+
+    private final Executor executor;
+
+    private final int maxInFlight;
+
+    public ParallelFunction(Function<TreeProvider<T>, ElementToIteratorFunction<T>> factory,
+            TreeProvider<T> provider, Executor executor, int maxInFlight) {
+        this.factory = factory;
+        this.provider = provider;
+        this.function = factory.apply(provider);
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public ElementToIteratorFunction<T> getFunction() {
+        return function;
+    }
+
+    @Override
+    public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
+        CopyPool copies = new CopyPool();
+        Iterator<Task> tasks = new Iterator<Task>() {
+            @Override
+            public boolean hasNext() {
+                return input.hasNext();
+            }
+
+            @Override
+            public Task next() {
+                return new Task(input.next(), copies);
+            }
+        };
+        return new FlatteningIterator(new ParallelIterator<>(tasks, Task::run, executor, maxInFlight), copies);
+    }
+
+    private static <T> List<Option<T>> expand(ElementToIteratorFunction<T> function, T element, int argumentId) {
+        List<Option<T>> result = new ArrayList<>();
+        Iterator<T> iterator = function.apply(element);
+        while (iterator.hasNext()) {
+            result.add(Option.of(iterator.next(), argumentId));
+        }
+        return result;
+    }
+
+    private class Task {
+
+        private final Option<T> option;
+
+        private final CopyPool copies;
+
+        private final TreeCopy<T> copy;
+
+        private T copiedElement;
+
+        private List<Option<T>> result = Collections.emptyList();
+
+        private Task(Option<T> option, CopyPool copies) {
+            this.option = option;
+            this.copies = copies;
+            if (option.isEmpty()) {
+                copy = null;
+            } else {
+                copy = copies.acquire(option.getElement());
+                if (copy == null) {
+                    result = expand(function, option.getElement(), option.getArgumentId());
+                }
+            }
+        }
+
+        // runs on the executor, reading only the copy
+        private Task run() {
+            if (copy == null) {
+                return this;
+            }
+            try {
+                copiedElement = copy.getElement(option.getElement());
+                if (copiedElement != null) {
+                    result = expand(factory.apply(copy.getProvider(provider)), copiedElement, option.getArgumentId());
+                }
+            } finally {
+                copies.release(copy);
+            }
+            return this;
+        }
+
+        // runs on the calling thread, once the task is done
+        private List<Option<T>> getResult() {
+            List<Option<T>> originals = result;
+            if (copy != null) {
+                originals = new ArrayList<>();
+                for (Option<T> o : result) {
+                    T original;
+                    if (provider.sameElement(o.getElement(), copiedElement)) {
+                        original = option.getElement();
+                    } else {
+                        original = copy.getOriginal(o.getElement());
+                    }
+                    if (original != null) {
+                        originals.add(Option.of(original, o.getArgumentId()));
+                    }
+                }
+            }
+            if (originals.isEmpty()) {
+                return Collections.singletonList(Option.empty(option.getArgumentId()));
+            }
+            return originals;
+        }
+    }
+
+    /**
+     * Copies of the tree used by a single iteration. The copies released by the
+     * workers are kept only while the reader waits for the next result, as the
+     * next task is created at that time and can take them over.
+     */
+    private class CopyPool {
+
+        private final Deque<TreeCopy<T>> idle = new ArrayDeque<>();
+
+        private boolean reading;
+
+        // runs on the calling thread
+        private TreeCopy<T> acquire(T element) {
+            synchronized (this) {
+                if (!idle.isEmpty()) {
+                    return idle.poll();
+                }
+            }
+            return provider.openCopy(element);
+        }
+
+        // runs on the executor, or on the calling thread if the task was rejected
+        private void release(TreeCopy<T> copy) {
+            synchronized (this) {
+                if (reading) {
+                    idle.add(copy);
+                    return;
+                }
+            }
+            copy.close();
+        }
+
+        private synchronized void startReading() {
+            reading = true;
+        }
+
+        // closes the copies which weren't taken over by a new task
+        private void stopReading() {
+            List<TreeCopy<T>> unused;
+            synchronized (this) {
+                reading = false;
+                unused = new ArrayList<>(idle);
+                idle.clear();
+            }
+            for (TreeCopy<T> copy : unused) {
+                copy.close();
+            }
+        }
+    }
+
+    private class FlatteningIterator extends AbstractIterator<Option<T>> {
+
+        private final Iterator<Task> tasks;
+
+        private final CopyPool copies;
+
+        private Iterator<Option<T>> current = Collections.emptyIterator();
+
+        private FlatteningIterator(Iterator<Task> tasks, CopyPool copies) {
+            this.tasks = tasks;
+            this.copies = copies;
+        }
+
+        @Override
+        protected Option<T> getElement() {
+            if (!current.hasNext()) {
+                copies.startReading();
+                try {
+                    while (!current.hasNext() && tasks.hasNext()) {
+                        current = tasks.next().getResult().iterator();
+                    }
+                } finally {
+                    copies.stopReading();
+                }
+            }
+            return current.hasNext() ? current.next() : null;
+        }
+    }
+}
@@ -24,8 +24,10 @@ import java.util.Iterator;
 import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
 import org.apache.sling.query.api.internal.Option;
 import org.apache.sling.query.impl.iterator.SliceIterator;
+import org.apache.sling.query.impl.push.PushFunction;
+import org.apache.sling.query.impl.push.Sink;
 
-public class SliceFunction<T> implements IteratorToIteratorFunction<T> {
+public class SliceFunction<T> implements IteratorToIteratorFunction<T>, PushFunction<T> {
 
     private final int from;
 
@@ -41,6 +43,14 @@ public class SliceFunction<T> implements IteratorToIteratorFunction<T> {
         this.to = null;
     }
 
+    int getFrom() {
+        return from;
+    }
+
+    int getTo() {
+        return to == null ? Integer.MAX_VALUE : to;
+    }
+
     @Override
     public Iterator<Option<T>> apply(Iterator<Option<T>> resources) {
         if (to == null) {
@@ -49,4 +59,28 @@ public class SliceFunction<T> implements IteratorToIteratorFunction<T> {
             return new SliceIterator<>(resources, from, to);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public Sink<T> push(Sink<T> downstream) {
+        final int last = to == null ? Integer.MAX_VALUE : to;
+        return new Sink<T>() {
+            private int current = -1;
+
+            @Override
+            public boolean accept(T element) {
+                if (current >= last) {
+                    return false;
+                }
+                if (++current >= from && !downstream.accept(element)) {
+                    return false;
+                }
+                return current < last;
+            }
+
+            @Override
+            public void complete() {
+                downstream.complete();
+            }
+        };
+    }
+}
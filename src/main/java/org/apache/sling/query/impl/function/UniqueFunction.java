@@ -19,17 +19,54 @@
 
 package org.apache.sling.query.impl.function;
 
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
+import org.apache.sling.query.api.ExecutionBudget;
 import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
 import org.apache.sling.query.api.internal.Option;
 import org.apache.sling.query.impl.iterator.UniqueIterator;
+import org.apache.sling.query.impl.push.PushFunction;
+import org.apache.sling.query.impl.push.Sink;
 
-public class UniqueFunction<T> implements IteratorToIteratorFunction<T> {
+public class UniqueFunction<T> implements IteratorToIteratorFunction<T>, PushFunction<T> {
+
+    private final ExecutionBudget budget;
+
+    public UniqueFunction() {
+        this(null);
+    }
+
+    public UniqueFunction(ExecutionBudget budget) {
+        this.budget = budget;
+    }
 
     @Override
     public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
-        return new UniqueIterator<>(input);
+        return new UniqueIterator<>(input, budget);
     }
 
+    @Override
+    public Sink<T> push(Sink<T> downstream) {
+        return new Sink<T>() {
+            private final Set<T> seen = new HashSet<>();
+
+            @Override
+            public boolean accept(T element) {
+                if (!seen.add(element)) {
+                    return true;
+                }
+                if (budget != null) {
+                    budget.buffer(seen.size());
+                }
+                return downstream.accept(element);
+            }
+
+            @Override
+            public void complete() {
+                downstream.complete();
+            }
+        };
+    }
 }
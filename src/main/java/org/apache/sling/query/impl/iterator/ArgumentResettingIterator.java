@@ -41,7 +41,12 @@ public class ArgumentResettingIterator<T> implements Iterator<Option<T>> {
 
     @Override
     public Option<T> next() {
-        return Option.of(iterator.next().getElement(), index++);
+        Option<T> option = iterator.next();
+        int argumentId = index++;
+        if (option.getArgumentId() == argumentId) {
+            return option;
+        }
+        return Option.of(option.getElement(), argumentId);
     }
 
     @Override
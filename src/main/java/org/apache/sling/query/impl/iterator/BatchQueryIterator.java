@@ -0,0 +1,202 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.iterator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.sling.query.api.ExecutionBudget;
+import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.api.internal.TreeProvider;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+
+/**
+ * This iterator queries descendants of a few input elements at once. The input
+ * is read in batches, descendants of all roots in a batch are fetched with a
+ * single query and then assigned back to the roots containing them. The
+ * output is ordered by the input elements, so the argument ids are the same as
+ * if each element was queried separately. The query result is read lazily:
+ * descendants of the first root in the batch are returned as they are read,
+ * only the ones of the other roots are held until the result is exhausted and
+ * reported to the {@link ExecutionBudget}. A batch with a single root is not
+ * buffered at all.
+ */
+public class BatchQueryIterator<T> extends AbstractIterator<Option<T>> {
+
+    private final Iterator<Option<T>> input;
+
+    private final TreeProvider<T> provider;
+
+    private final List<SelectorSegment> segments;
+
+    private final int batchSize;
+
+    private final ExecutionBudget budget;
+
+    private final Deque<Option<T>> output = new ArrayDeque<>();
+
+    // roots of the current batch, the first one is streamed
+    private final List<T> roots = new ArrayList<>();
+
+    // input options following the first root in the current batch
+    private final List<Option<T>> rest = new ArrayList<>();
+
+    // descendants of the roots following the first one
+    private final List<List<T>> descendants = new ArrayList<>();
+
+    private Option<T> first;
+
+    private Iterator<T> result;
+
+    private boolean firstFound;
+
+    private long buffered;
+
+    public BatchQueryIterator(Iterator<Option<T>> input, TreeProvider<T> provider, List<SelectorSegment> segments,
+            int batchSize) {
+        this.input = input;
+        this.provider = provider;
+        this.segments = segments;
+        this.batchSize = batchSize;
+        this.budget = provider.getBudget();
+    }
+
+    @Override
+    protected Option<T> getElement() {
+        while (true) {
+            if (!output.isEmpty()) {
+                return output.poll();
+            }
+            if (first != null) {
+                Option<T> element = readResult();
+                if (element != null) {
+                    return element;
+                }
+            } else if (!queryNextBatch()) {
+                return null;
+            }
+        }
+    }
+
+    private boolean queryNextBatch() {
+        boolean read = false;
+        while (roots.size() < batchSize && input.hasNext()) {
+            Option<T> option = input.next();
+            read = true;
+            if (first != null) {
+                rest.add(option);
+            } else if (option.isEmpty()) {
+                output.add(option);
+            } else {
+                first = option;
+            }
+            if (!option.isEmpty()) {
+                roots.add(option.getElement());
+            }
+        }
+        if (roots.size() == 1) {
+            result = new WarningIterator<>(provider.query(segments, roots.get(0)));
+        } else if (!roots.isEmpty()) {
+            for (int i = 1; i < roots.size(); i++) {
+                descendants.add(new ArrayList<T>());
+            }
+            result = new WarningIterator<>(provider.query(segments, getTopRoots(roots)));
+        }
+        return read;
+    }
+
+    // returns the next descendant of the first root, buffering the other ones
+    private Option<T> readResult() {
+        while (result.hasNext()) {
+            T element = result.next();
+            for (int i = 1; i < roots.size(); i++) {
+                if (isStrictDescendant(roots.get(i), element)) {
+                    descendants.get(i - 1).add(element);
+                    buffered++;
+                    if (budget != null) {
+                        budget.buffer(buffered);
+                    }
+                }
+            }
+            if (isStrictDescendant(roots.get(0), element)) {
+                firstFound = true;
+                return Option.of(element, first.getArgumentId());
+            }
+        }
+        if (!firstFound) {
+            output.add(Option.<T>empty(first.getArgumentId()));
+        }
+        int rootIndex = 0;
+        for (Option<T> option : rest) {
+            if (option.isEmpty()) {
+                output.add(option);
+                continue;
+            }
+            List<T> elements = descendants.get(rootIndex++);
+            if (elements.isEmpty()) {
+                output.add(Option.<T>empty(option.getArgumentId()));
+            }
+            for (T element : elements) {
+                output.add(Option.of(element, option.getArgumentId()));
+            }
+        }
+        first = null;
+        firstFound = false;
+        result = null;
+        buffered = 0;
+        roots.clear();
+        rest.clear();
+        descendants.clear();
+        return null;
+    }
+
+    /**
+     * Roots contained in other roots don't have to be queried, their descendants
+     * are already returned for the outer root.
+     */
+    private List<T> getTopRoots(List<T> roots) {
+        List<T> result = new ArrayList<>();
+        for (T root : roots) {
+            boolean covered = false;
+            for (T other : roots) {
+                if (isStrictDescendant(other, root)) {
+                    covered = true;
+                    break;
+                }
+            }
+            for (T added : result) {
+                if (provider.sameElement(added, root)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                result.add(root);
+            }
+        }
+        return result;
+    }
+
+    private boolean isStrictDescendant(T root, T element) {
+        return provider.isDescendant(root, element) && !provider.sameElement(root, element);
+    }
+}
@@ -0,0 +1,49 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.iterator;
+
+import java.util.Iterator;
+
+import org.apache.sling.query.api.ExecutionBudget;
+
+/**
+ * Charges the budget for each element read from the iterator.
+ */
+public class BudgetIterator<T> extends AbstractIterator<T> {
+
+    private final Iterator<T> iterator;
+
+    private final ExecutionBudget budget;
+
+    public BudgetIterator(Iterator<T> iterator, ExecutionBudget budget) {
+        this.iterator = iterator;
+        this.budget = budget;
+    }
+
+    @Override
+    protected T getElement() {
+        budget.check();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        budget.visitNode();
+        return iterator.next();
+    }
+}
@@ -39,7 +39,7 @@ public class DescendantsIterator<T> extends AbstractIterator<Option<T>> {
     public DescendantsIterator(Iterator<Option<T>> input, Iterator<T> descendants, TreeProvider<T> provider) {
         this.input = input;
         this.current = null;
-        this.descendants = new ArrayList<T>(new LazyList<T>(descendants)).iterator();
+        this.descendants = new ArrayList<T>(new LazyList<T>(descendants, provider.getBudget())).iterator();
         this.provider = provider;
     }
 
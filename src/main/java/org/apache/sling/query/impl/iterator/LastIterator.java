@@ -60,6 +60,7 @@ public class LastIterator<T> extends AbstractIterator<Option<T>> {
             next = iterator.next();
         }
         if (!iterator.hasNext() && next.isEmpty()) {
+            previous = null;
             return candidate;
         }
         previous = next;
@@ -0,0 +1,126 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.iterator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import org.apache.sling.query.api.ExecutionBudget;
+import org.apache.sling.query.api.internal.Option;
+
+/**
+ * Evaluates all selector alternatives in a single pass over the input, testing
+ * each element against every alternative. The output is the same as if the
+ * alternatives were evaluated one after another: the results of the first
+ * alternative for the whole input, then the results of the second one, and so
+ * on, with the non-matching elements replaced by the empty options. The
+ * results of the first alternative are returned as the input is read, only the
+ * matches of the other alternatives are buffered.
+ */
+public class LocalAlternativesIterator<T> extends AbstractIterator<Option<T>> {
+
+    private final Iterator<Option<T>> input;
+
+    private final BiPredicate<T, Integer> matcher;
+
+    private final int alternatives;
+
+    // matches of the alternatives other than the first one, by alternative
+    private final List<List<Option<T>>> matches = new ArrayList<>();
+
+    private final List<List<Integer>> matchIndices = new ArrayList<>();
+
+    private final ExecutionBudget budget;
+
+    private int size;
+
+    private int buffered;
+
+    private int alternative;
+
+    private int index;
+
+    private int matchIndex;
+
+    public LocalAlternativesIterator(Iterator<Option<T>> input, BiPredicate<T, Integer> matcher, int alternatives) {
+        this(input, matcher, alternatives, null);
+    }
+
+    public LocalAlternativesIterator(Iterator<Option<T>> input, BiPredicate<T, Integer> matcher, int alternatives,
+            ExecutionBudget budget) {
+        this.input = input;
+        this.matcher = matcher;
+        this.alternatives = alternatives;
+        this.budget = budget;
+        for (int i = 1; i < alternatives; i++) {
+            matches.add(new ArrayList<Option<T>>());
+            matchIndices.add(new ArrayList<Integer>());
+        }
+    }
+
+    @Override
+    protected Option<T> getElement() {
+        if (alternative == 0) {
+            if (input.hasNext()) {
+                return readNext();
+            }
+            alternative = 1;
+        }
+        while (alternative < alternatives) {
+            if (index < size) {
+                return replay(alternative - 1);
+            }
+            alternative++;
+            index = 0;
+            matchIndex = 0;
+        }
+        return null;
+    }
+
+    private Option<T> readNext() {
+        Option<T> option = input.next();
+        int i = size++;
+        if (option.isEmpty()) {
+            return Option.empty(i);
+        }
+        boolean matchesFirst = matcher.test(option.getElement(), 0);
+        for (int a = 1; a < alternatives; a++) {
+            if (matcher.test(option.getElement(), a)) {
+                matches.get(a - 1).add(option);
+                matchIndices.get(a - 1).add(i);
+                if (budget != null) {
+                    budget.buffer(++buffered);
+                }
+            }
+        }
+        return matchesFirst ? option : Option.empty(i);
+    }
+
+    private Option<T> replay(int buffer) {
+        List<Integer> indices = matchIndices.get(buffer);
+        int i = index++;
+        if (matchIndex < indices.size() && indices.get(matchIndex) == i) {
+            return matches.get(buffer).get(matchIndex++);
+        }
+        return Option.empty(i);
+    }
+}
@@ -0,0 +1,106 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.iterator;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Applies the function to the source elements on the executor, running at most
+ * maxInFlight tasks at once. The source iterator is only read by the consuming
+ * thread and the results are returned in the order of the source elements. Null
+ * results are skipped. Elements rejected by the executor are processed on the
+ * calling thread.
+ */
+public class ParallelIterator<F, T> extends AbstractIterator<T> {
+
+    private final Iterator<F> iterator;
+
+    private final Function<F, T> function;
+
+    private final Executor executor;
+
+    private final int maxInFlight;
+
+    private final Queue<CompletableFuture<T>> inFlight = new ArrayDeque<>();
+
+    public ParallelIterator(Iterator<F> iterator, Function<F, T> function, Executor executor, int maxInFlight) {
+        this.iterator = iterator;
+        this.function = function;
+        this.executor = executor;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+    }
+
+    @Override
+    protected T getElement() {
+        submit();
+        while (!inFlight.isEmpty()) {
+            T result = getResult(inFlight.poll());
+            submit();
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private void submit() {
+        while (inFlight.size() < maxInFlight && iterator.hasNext()) {
+            F element = iterator.next();
+            CompletableFuture<T> future;
+            try {
+                future = CompletableFuture.supplyAsync(() -> function.apply(element), executor);
+            } catch (RejectedExecutionException e) {
+                future = applyNow(element);
+            }
+            inFlight.add(future);
+        }
+    }
+
+    // the failure is reported when the result is read, as for the submitted elements
+    private CompletableFuture<T> applyNow(F element) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(function.apply(element));
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static <T> T getResult(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
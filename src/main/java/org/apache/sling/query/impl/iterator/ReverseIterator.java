@@ -21,6 +21,7 @@ package org.apache.sling.query.impl.iterator;
 
 import java.util.Iterator;
 
+import org.apache.sling.query.api.ExecutionBudget;
 import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
 import org.apache.sling.query.api.internal.Option;
 import org.apache.sling.query.impl.util.LazyList;
@@ -32,7 +33,12 @@ public class ReverseIterator<T> extends AbstractIterator<Option<T>> {
     private final Iterator<Option<T>> original;
 
     public ReverseIterator(IteratorToIteratorFunction<T> function, Iterator<Option<T>> input) {
-        LazyList<Option<T>> lazyList = new LazyList<Option<T>>(input);
+        this(function, input, null);
+    }
+
+    public ReverseIterator(IteratorToIteratorFunction<T> function, Iterator<Option<T>> input,
+            ExecutionBudget budget) {
+        LazyList<Option<T>> lazyList = new LazyList<Option<T>>(input, budget);
         filtered = function.apply(lazyList.listIterator());
         original = lazyList.listIterator();
     }
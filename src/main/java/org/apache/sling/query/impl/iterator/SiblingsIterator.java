@@ -75,7 +75,7 @@ public class SiblingsIterator<T> extends AbstractIterator<T> {
         } else {
             iterator = provider.listChildren(parent);
         }
-        ListIterator<T> listIterator = new LazyList<T>(iterator).listIterator();
+        ListIterator<T> listIterator = new LazyList<T>(iterator, provider.getBudget()).listIterator();
         while (listIterator.hasNext()) {
             T sibling = listIterator.next();
             if (provider.getName(sibling).equals(resourceName)) {
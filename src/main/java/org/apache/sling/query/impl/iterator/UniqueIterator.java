@@ -24,6 +24,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
+import org.apache.sling.query.api.ExecutionBudget;
 import org.apache.sling.query.api.internal.Option;
 
 /**
@@ -39,8 +40,15 @@ public class UniqueIterator<T> extends AbstractIterator<Option<T>> {
 
     private Set<T> seen;
 
+    private final ExecutionBudget budget;
+
     public UniqueIterator(Iterator<Option<T>> input) {
+        this(input, null);
+    }
+
+    public UniqueIterator(Iterator<Option<T>> input, ExecutionBudget budget) {
         this.iterator = input;
+        this.budget = budget;
         seen = new HashSet<>();
     }
 
@@ -56,6 +64,9 @@ public class UniqueIterator<T> extends AbstractIterator<Option<T>> {
             if (!seen.add(candidate.getElement())) {
                 return Option.empty(candidate.getArgumentId());
             }
+            if (budget != null) {
+                budget.buffer(seen.size());
+            }
         }
         return candidate;
     }
@@ -23,6 +23,7 @@ import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 
+import org.apache.sling.query.api.ExecutionBudget;
 import org.apache.sling.query.api.internal.TreeProvider;
 import org.apache.sling.query.impl.iterator.AbstractIterator;
 
@@ -32,11 +33,14 @@ public class BfsTreeIterator<T> extends AbstractIterator<T> {
 
     private final TreeProvider<T> provider;
 
+    private final ExecutionBudget budget;
+
     private Iterator<T> currentIterator;
 
     public BfsTreeIterator(T root, TreeProvider<T> provider) {
         this.currentIterator = provider.listChildren(root);
         this.provider = provider;
+        this.budget = provider.getBudget();
     }
 
     @Override
@@ -44,6 +48,9 @@ public class BfsTreeIterator<T> extends AbstractIterator<T> {
         if (currentIterator.hasNext()) {
             T resource = currentIterator.next();
             queue.add(resource);
+            if (budget != null) {
+                budget.buffer(queue.size());
+            }
             return resource;
         }
 
@@ -31,7 +31,7 @@ public class IterableContainsPredicate<T> implements Predicate<T> {
     private final TreeProvider<T> provider;
 
     public IterableContainsPredicate(Iterable<T> iterable, TreeProvider<T> provider) {
-        this.iterable = new LazyList<T>(iterable.iterator());
+        this.iterable = new LazyList<T>(iterable.iterator(), provider.getBudget());
         this.provider = provider;
     }
 
@@ -0,0 +1,120 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.push;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.sling.query.api.ExecutionBudget;
+
+/**
+ * Evaluates a few function lists sharing the same prefix. The prefix is
+ * evaluated once and each of its elements is pushed to all the branches
+ * supporting the push mode. The remaining branches are evaluated afterwards,
+ * reading the prefix output from a buffer, which is created only if there are
+ * such branches. The buffer size is reported to the {@link ExecutionBudget}.
+ * Once the buffer grows over its limit, it's dropped and the remaining
+ * branches evaluate the prefix again, each on its own.
+ */
+public class BranchingPipeline<T> {
+
+    public static final int DEFAULT_MAX_BUFFERED = 10000;
+
+    private final List<Function<?, ?>> prefix;
+
+    private final List<List<Function<?, ?>>> branches;
+
+    private final ExecutionBudget budget;
+
+    private final int maxBuffered;
+
+    /**
+     * @param prefix      functions shared by all the branches
+     * @param branches    functions following the prefix
+     * @param budget      budget the buffer size is reported to, may be null
+     * @param maxBuffered maximum number of the buffered prefix elements
+     */
+    public BranchingPipeline(List<Function<?, ?>> prefix, List<List<Function<?, ?>>> branches,
+            ExecutionBudget budget, int maxBuffered) {
+        this.prefix = prefix;
+        this.branches = branches;
+        this.budget = budget;
+        this.maxBuffered = maxBuffered;
+    }
+
+    public List<List<T>> run(Iterable<T> input) {
+        List<List<T>> results = new ArrayList<>();
+        List<Sink<T>> sinks = new ArrayList<>();
+        boolean buffered = false;
+        for (List<Function<?, ?>> branch : branches) {
+            List<T> result = new ArrayList<>();
+            PushPipeline<T> pipeline = new PushPipeline<>(branch);
+            results.add(result);
+            if (pipeline.isPushable()) {
+                sinks.add(pipeline.createSink(result::add));
+            } else {
+                sinks.add(null);
+                buffered = true;
+            }
+        }
+
+        List<T> buffer = buffered ? new ArrayList<>() : null;
+        boolean[] stopped = new boolean[sinks.size()];
+        boolean[] overflow = new boolean[1];
+        new PushPipeline<T>(prefix).run(input, element -> {
+            boolean accepted = false;
+            for (int i = 0; i < sinks.size(); i++) {
+                Sink<T> sink = sinks.get(i);
+                if (sink != null && !stopped[i]) {
+                    stopped[i] = !sink.accept(element);
+                    accepted |= !stopped[i];
+                }
+            }
+            if (buffer != null && !overflow[0]) {
+                if (buffer.size() < maxBuffered) {
+                    buffer.add(element);
+                    if (budget != null) {
+                        budget.buffer(buffer.size());
+                    }
+                    accepted = true;
+                } else {
+                    overflow[0] = true;
+                    buffer.clear();
+                }
+            }
+            return accepted;
+        });
+
+        for (int i = 0; i < sinks.size(); i++) {
+            Sink<T> sink = sinks.get(i);
+            if (sink != null) {
+                sink.complete();
+            } else if (overflow[0]) {
+                List<Function<?, ?>> functions = new ArrayList<>(prefix);
+                functions.addAll(branches.get(i));
+                new PushPipeline<T>(functions).run(input, results.get(i)::add);
+            } else {
+                new PushPipeline<T>(branches.get(i)).run(buffer, results.get(i)::add);
+            }
+        }
+        return results;
+    }
+}
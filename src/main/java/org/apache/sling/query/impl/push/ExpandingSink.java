@@ -0,0 +1,64 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.push;
+
+import java.util.Iterator;
+
+import org.apache.sling.query.api.internal.ElementToIteratorFunction;
+
+/**
+ * Pushes the result of the function applied to each input element.
+ */
+public class ExpandingSink<T> implements Sink<T> {
+
+    private final ElementToIteratorFunction<T> function;
+
+    private final Sink<T> downstream;
+
+    public ExpandingSink(ElementToIteratorFunction<T> function, Sink<T> downstream) {
+        this.function = function;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public boolean accept(T element) {
+        return pushAll(function.apply(element), downstream);
+    }
+
+    @Override
+    public void complete() {
+        downstream.complete();
+    }
+
+    /**
+     * Push the elements, skipping the nulls like the empty options are skipped.
+     *
+     * @return false if the sink stopped accepting elements
+     */
+    public static <T> boolean pushAll(Iterator<T> iterator, Sink<T> sink) {
+        while (iterator.hasNext()) {
+            T element = iterator.next();
+            if (element != null && !sink.accept(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
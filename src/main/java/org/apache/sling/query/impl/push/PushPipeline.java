@@ -0,0 +1,136 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.push;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.apache.sling.query.api.internal.ElementToIteratorFunction;
+import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.impl.function.CompositeFunction;
+import org.apache.sling.query.impl.iterator.EmptyElementFilter;
+import org.apache.sling.query.impl.iterator.OptionDecoratingIterator;
+import org.apache.sling.query.impl.iterator.OptionStrippingIterator;
+
+/**
+ * Evaluates the functions in the push mode. The longest suffix of the function
+ * list which supports it is fused into a chain of sinks, and each element is
+ * pushed through the whole chain before the next one is produced. The
+ * remaining functions, which need the whole {@link Option} stream (eg. to
+ * match the selector alternatives), are evaluated by pulling as usual. The
+ * action stops the evaluation by returning false.
+ */
+public class PushPipeline<T> {
+
+    private final List<Function<?, ?>> functions;
+
+    public PushPipeline(List<Function<?, ?>> functions) {
+        this.functions = functions;
+    }
+
+    public void run(Iterable<T> input, Predicate<? super T> action) {
+        int pushed = getFirstPushed();
+        Iterator<T> source = input.iterator();
+        if (pushed > 0) {
+            CompositeFunction<T> pulled = new CompositeFunction<>(functions.subList(0, pushed));
+            Iterator<Option<T>> iterator = pulled.apply(new OptionDecoratingIterator<>(source));
+            source = new OptionStrippingIterator<>(new EmptyElementFilter<>(iterator));
+        }
+
+        Sink<T> sink = createSink(pushed, action);
+        ExpandingSink.pushAll(source, sink);
+        sink.complete();
+    }
+
+    /**
+     * @return true if all the functions can be evaluated in the push mode
+     */
+    public boolean isPushable() {
+        return getFirstPushed() == 0;
+    }
+
+    /**
+     * Fuse all the functions into a chain of sinks. Requires {@link #isPushable()}.
+     */
+    public Sink<T> createSink(Predicate<? super T> action) {
+        if (!isPushable()) {
+            throw new IllegalStateException("Some of the functions can't be pushed");
+        }
+        return createSink(0, action);
+    }
+
+    private int getFirstPushed() {
+        int pushed = functions.size();
+        while (pushed > 0 && isPushable(functions.get(pushed - 1))) {
+            pushed--;
+        }
+        return pushed;
+    }
+
+    private Sink<T> createSink(int from, Predicate<? super T> action) {
+        Sink<T> sink = new TerminalSink<>(action);
+        for (int i = functions.size() - 1; i >= from; i--) {
+            sink = createSink(functions.get(i), sink);
+        }
+        return sink;
+    }
+
+    private static boolean isPushable(Function<?, ?> function) {
+        if (function instanceof PushFunction) {
+            return ((PushFunction<?>) function).isPushable();
+        }
+        return function instanceof ElementToIteratorFunction;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Sink<T> createSink(Function<?, ?> function, Sink<T> downstream) {
+        if (function instanceof PushFunction) {
+            return ((PushFunction<T>) function).push(downstream);
+        } else {
+            return new ExpandingSink<>((ElementToIteratorFunction<T>) function, downstream);
+        }
+    }
+
+    private static class TerminalSink<T> implements Sink<T> {
+
+        private final Predicate<? super T> action;
+
+        private boolean stopped;
+
+        private TerminalSink(Predicate<? super T> action) {
+            this.action = action;
+        }
+
+        @Override
+        public boolean accept(T element) {
+            if (!stopped && !action.test(element)) {
+                stopped = true;
+            }
+            return !stopped;
+        }
+
+        @Override
+        public void complete() {
+            stopped = true;
+        }
+    }
+}
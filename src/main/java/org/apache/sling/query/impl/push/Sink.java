@@ -0,0 +1,41 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.push;
+
+/**
+ * Consumer of the elements pushed by the previous stage of the pipeline.
+ *
+ * @param <T> element type
+ */
+public interface Sink<T> {
+
+    /**
+     * @param element next element
+     * @return false if the sink won't accept any more elements, so the producer
+     *         should stop
+     */
+    boolean accept(T element);
+
+    /**
+     * Called once there are no more elements, so the buffered ones may be pushed
+     * further.
+     */
+    void complete();
+}
@@ -0,0 +1,70 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.resource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.query.api.internal.FullTextMatcher;
+
+public class ResourceFullTextPredicate implements Predicate<Resource> {
+
+    private final FullTextMatcher matcher;
+
+    public ResourceFullTextPredicate(FullTextMatcher matcher) {
+        this.matcher = matcher;
+    }
+
+    @Override
+    public boolean test(Resource resource) {
+        if (matcher.getTerms().isEmpty()) {
+            return true;
+        }
+        List<String> values = new ArrayList<>();
+        if (matcher.getProperty() == null) {
+            Map<?, ?> properties = resource.adaptTo(ValueMap.class);
+            if (properties != null) {
+                for (Object value : properties.values()) {
+                    addValue(values, value);
+                }
+            }
+        } else {
+            Resource property = resource.getChild(matcher.getProperty());
+            if (property != null) {
+                String[] multiProperty = property.adaptTo(String[].class);
+                addValue(values, multiProperty == null ? property.adaptTo(String.class) : multiProperty);
+            }
+        }
+        return matcher.matches(values);
+    }
+
+    private static void addValue(List<String> values, Object value) {
+        if (value instanceof String) {
+            values.add((String) value);
+        } else if (value instanceof String[]) {
+            values.addAll(Arrays.asList((String[]) value));
+        }
+    }
+}
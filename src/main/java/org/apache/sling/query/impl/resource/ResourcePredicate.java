@@ -28,6 +28,8 @@ import javax.jcr.RepositoryException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.query.impl.resource.jcr.JcrTypeResolver;
 import org.apache.sling.query.impl.selector.parser.Attribute;
 import org.slf4j.Logger;
@@ -37,13 +39,19 @@ public class ResourcePredicate implements Predicate<Resource> {
 
     private static final Logger LOG = LoggerFactory.getLogger(ResourcePredicate.class);
 
+    private static final String JCR_PRIMARY_TYPE = "jcr:primaryType";
+
+    private static final String JCR_MIXIN_TYPES = "jcr:mixinTypes";
+
     private final String resourceType;
 
     private final String resourceName;
 
     private final List<Predicate<Resource>> subPredicates;
 
-    private JcrTypeResolver typeResolver;
+    private final JcrTypeResolver typeResolver;
+
+    private final boolean jcrType;
 
     public ResourcePredicate(String resourceType, String resourceName, List<Attribute> attributes,
             JcrTypeResolver typeResolver) {
@@ -54,6 +62,7 @@ public class ResourcePredicate implements Predicate<Resource> {
             subPredicates.add(new ResourcePropertyPredicate(a));
         }
         this.typeResolver = typeResolver;
+        this.jcrType = StringUtils.isNotBlank(resourceType) && typeResolver.isJcrType(resourceType);
     }
 
     @Override
@@ -76,10 +85,19 @@ public class ResourcePredicate implements Predicate<Resource> {
         if (StringUtils.isBlank(resourceType)) {
             return true;
         }
-        if (resource.isResourceType(resourceType)) {
+        if (jcrType) {
+            // node types can be read from the properties, without adapting to Node
+            ValueMap properties = resource.adaptTo(ValueMap.class);
+            String primaryType = properties == null ? null : properties.get(JCR_PRIMARY_TYPE, String.class);
+            if (primaryType != null) {
+                return isNodeType(primaryType, properties.get(JCR_MIXIN_TYPES, String[].class))
+                        || isSlingResourceType(resource);
+            }
+        }
+        if (isSlingResourceType(resource)) {
             return true;
         }
-        if (!isValidType(resourceType)) {
+        if (!jcrType) {
             return false;
         }
         Node node = resource.adaptTo(Node.class);
@@ -93,7 +111,41 @@ public class ResourcePredicate implements Predicate<Resource> {
         return false;
     }
 
-    private boolean isValidType(String type) {
-        return typeResolver.isJcrType(type);
+    /**
+     * Same as {@link Resource#isResourceType(String)}, but the super type chain
+     * is taken from the shared cache, rather than read for each resource.
+     */
+    private boolean isSlingResourceType(Resource resource) {
+        String type = resource.getResourceType();
+        if (resourceType.equals(type)) {
+            return true;
+        }
+        ResourceResolver resolver = resource.getResourceResolver();
+        if (resolver == null) {
+            return resource.isResourceType(resourceType);
+        }
+        String superType = resource.getResourceSuperType();
+        if (superType != null) {
+            type = superType;
+        }
+        return type != null && ResourceTypeHierarchy.getInstance().getTypes(resolver, type).contains(resourceType);
+    }
+
+    private boolean isNodeType(String primaryType, String[] mixinTypes) {
+        if (isNodeType(primaryType)) {
+            return true;
+        }
+        if (mixinTypes != null) {
+            for (String mixinType : mixinTypes) {
+                if (isNodeType(mixinType)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isNodeType(String type) {
+        return resourceType.equals(type) || typeResolver.isSubtype(resourceType, type);
     }
 }
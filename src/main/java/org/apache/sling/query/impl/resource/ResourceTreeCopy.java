@@ -0,0 +1,66 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.resource;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.query.api.internal.TreeCopy;
+import org.apache.sling.query.api.internal.TreeProvider;
+import org.apache.sling.query.impl.resource.jcr.JcrTypeResolver;
+import org.apache.sling.query.impl.resource.jcr.SessionJcrTypeResolver;
+
+/**
+ * Resource tree read with a cloned resource resolver, as the resolvers can't
+ * be used by a few threads at once.
+ */
+class ResourceTreeCopy implements TreeCopy<Resource> {
+
+    private final ResourceResolver resolver;
+
+    private final ResourceResolver clonedResolver;
+
+    private final JcrTypeResolver typeResolver;
+
+    ResourceTreeCopy(ResourceResolver resolver, ResourceResolver clonedResolver) {
+        this.resolver = resolver;
+        this.clonedResolver = clonedResolver;
+        this.typeResolver = new SessionJcrTypeResolver(clonedResolver);
+    }
+
+    @Override
+    public TreeProvider<Resource> getProvider(TreeProvider<Resource> provider) {
+        return ((ResourceTreeProvider) provider).withTypeResolver(typeResolver);
+    }
+
+    @Override
+    public Resource getElement(Resource original) {
+        return clonedResolver.getResource(original.getPath());
+    }
+
+    @Override
+    public Resource getOriginal(Resource element) {
+        return resolver.getResource(element.getPath());
+    }
+
+    @Override
+    public void close() {
+        clonedResolver.close();
+    }
+}
@@ -19,34 +19,97 @@
 
 package org.apache.sling.query.impl.resource;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Predicate;
 
+import javax.jcr.Session;
+
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.query.api.ExecutionBudget;
+import org.apache.sling.query.api.QueryOptions;
+import org.apache.sling.query.api.internal.FullTextMatcher;
+import org.apache.sling.query.api.internal.TreeCopy;
 import org.apache.sling.query.api.internal.TreeProvider;
+import org.apache.sling.query.impl.iterator.BudgetIterator;
+import org.apache.sling.query.impl.resource.jcr.JcrQueryCache;
 import org.apache.sling.query.impl.resource.jcr.JcrQueryIterator;
 import org.apache.sling.query.impl.resource.jcr.JcrTypeResolver;
 import org.apache.sling.query.impl.resource.jcr.SessionJcrTypeResolver;
+import org.apache.sling.query.impl.resource.jcr.query.JcrQuery;
+import org.apache.sling.query.impl.resource.jcr.query.JcrQueryBuilder;
 import org.apache.sling.query.impl.selector.parser.Attribute;
+import org.apache.sling.query.impl.selector.parser.Modifier;
 import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ResourceTreeProvider implements TreeProvider<Resource> {
 
+    public static final int DEFAULT_QUERY_BATCH_SIZE = 50;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceTreeProvider.class);
+
     private final JcrTypeResolver typeResolver;
 
+    private final int queryPageSize;
+
+    private final int queryBatchSize;
+
+    private final QueryOptions queryOptions;
+
+    private final ExecutionBudget budget;
+
     public ResourceTreeProvider(ResourceResolver resolver) {
-        this.typeResolver = new SessionJcrTypeResolver(resolver);
+        this(new SessionJcrTypeResolver(resolver), JcrQueryIterator.DEFAULT_PAGE_SIZE, DEFAULT_QUERY_BATCH_SIZE,
+                QueryOptions.DEFAULT, null);
+    }
+
+    private ResourceTreeProvider(JcrTypeResolver typeResolver, int queryPageSize, int queryBatchSize,
+            QueryOptions queryOptions, ExecutionBudget budget) {
+        this.typeResolver = typeResolver;
+        this.queryPageSize = queryPageSize;
+        this.queryBatchSize = queryBatchSize;
+        this.queryOptions = queryOptions;
+        this.budget = budget;
+    }
+
+    public ResourceTreeProvider withQueryPageSize(int pageSize) {
+        return new ResourceTreeProvider(typeResolver, pageSize, queryBatchSize, queryOptions, budget);
+    }
+
+    public ResourceTreeProvider withQueryBatchSize(int batchSize) {
+        return new ResourceTreeProvider(typeResolver, queryPageSize, batchSize, queryOptions, budget);
+    }
+
+    @Override
+    public ResourceTreeProvider withQueryOptions(QueryOptions options) {
+        return new ResourceTreeProvider(typeResolver, queryPageSize, queryBatchSize, options, budget);
+    }
+
+    ResourceTreeProvider withTypeResolver(JcrTypeResolver resolver) {
+        return new ResourceTreeProvider(resolver, queryPageSize, queryBatchSize, queryOptions, budget);
+    }
+
+    @Override
+    public ResourceTreeProvider withBudget(ExecutionBudget budget) {
+        return new ResourceTreeProvider(typeResolver, queryPageSize, queryBatchSize, queryOptions, budget);
     }
 
     @Override
     public Iterator<Resource> listChildren(Resource parent) {
-        return parent.listChildren();
+        return charge(parent.listChildren());
     }
 
     @Override
     public Resource getParent(Resource element) {
+        if (budget != null) {
+            budget.callProvider();
+            budget.visitNode();
+        }
         return element.getParent();
     }
 
@@ -60,9 +123,63 @@ public class ResourceTreeProvider implements TreeProvider<Resource> {
         return new ResourcePredicate(type, id, attributes, typeResolver);
     }
 
+    @Override
+    public Predicate<Resource> getFullTextPredicate(FullTextMatcher matcher) {
+        return new ResourceFullTextPredicate(matcher);
+    }
+
     @Override
     public Iterator<Resource> query(List<SelectorSegment> segments, Resource resource) {
-        return new JcrQueryIterator(segments, resource, typeResolver);
+        return charge(new JcrQueryIterator(getQuery(segments, resource), Collections.singletonList(resource), queryPageSize,
+                queryOptions));
+    }
+
+    @Override
+    public Iterator<Resource> query(List<SelectorSegment> segments, List<Resource> roots) {
+        return charge(new JcrQueryIterator(getQuery(segments, roots.get(0)), roots, queryPageSize, queryOptions));
+    }
+
+    @Override
+    public long count(List<SelectorSegment> segments, Resource root) {
+        if (!new JcrQueryBuilder(typeResolver).isExact(segments)) {
+            return -1;
+        }
+        if (budget != null) {
+            budget.callProvider();
+        }
+        return new JcrQueryIterator(getQuery(segments, root), Collections.singletonList(root), queryPageSize, queryOptions)
+                .count();
+    }
+
+    @Override
+    public int getQueryBatchSize() {
+        return queryBatchSize;
+    }
+
+    @Override
+    public ExecutionBudget getBudget() {
+        return budget;
+    }
+
+    @Override
+    public TreeCopy<Resource> openCopy(Resource element) {
+        ResourceResolver resolver = element.getResourceResolver();
+        if (resolver == null) {
+            return null;
+        }
+        ResourceResolver clonedResolver;
+        try {
+            clonedResolver = resolver.clone(null);
+        } catch (LoginException e) {
+            LOG.error("Can't clone the resource resolver", e);
+            return null;
+        }
+        return new ResourceTreeCopy(resolver, clonedResolver);
+    }
+
+    @Override
+    public boolean isPushedDown(SelectorSegment segment, Modifier modifier) {
+        return new JcrQueryBuilder(typeResolver).isPushedDown(segment, modifier);
     }
 
     @Override
@@ -76,12 +193,41 @@ public class ResourceTreeProvider implements TreeProvider<Resource> {
         return o1.getPath().equals(o2.getPath());
     }
 
+    @Override
+    public Object getKey(Resource element) {
+        return element.getPath();
+    }
+
     @Override
     public boolean isDescendant(Resource root, Resource testedElement) {
         if (root == null || testedElement == null) {
             return false;
         }
-        return testedElement.getPath().startsWith(root.getPath());
+        String rootPath = root.getPath();
+        String testedPath = testedElement.getPath();
+        if (testedPath.equals(rootPath) || "/".equals(rootPath)) {
+            return testedPath.startsWith(rootPath);
+        }
+        return testedPath.startsWith(rootPath + "/");
+    }
+
+    // each call lists or queries the elements, which are charged when they are read
+    private Iterator<Resource> charge(Iterator<Resource> iterator) {
+        if (budget == null) {
+            return iterator;
+        }
+        budget.callProvider();
+        return new BudgetIterator<>(iterator, budget);
+    }
+
+    // the same segments are queried for each element of the input, eg. by find()
+    private JcrQuery getQuery(List<SelectorSegment> segments, Resource root) {
+        ResourceResolver resolver = root.getResourceResolver();
+        Session session = resolver == null ? null : resolver.adaptTo(Session.class);
+        if (session == null) {
+            return new JcrQueryBuilder(typeResolver).build(segments);
+        }
+        return JcrQueryCache.get(session).getTemplate(segments, s -> new JcrQueryBuilder(typeResolver).build(s));
     }
 
 }
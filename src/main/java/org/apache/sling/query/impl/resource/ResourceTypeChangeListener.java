@@ -0,0 +1,135 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.query.impl.resource.jcr.NodeTypeHierarchy;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Clears the {@link ResourceTypeHierarchy} cache on changes of the type
+ * definitions and the {@link NodeTypeHierarchy} snapshots on changes of the
+ * node types. The component registers itself with a long-living session of the
+ * service resolver, which requires a service user mapping for the
+ * {@value #SUBSERVICE} subservice of this bundle, eg.
+ * {@code org.apache.sling.query:type-listener=sling-query-service}, with a
+ * service user allowed to read /apps, /libs and /jcr:system/jcr:nodeTypes. If
+ * it can't, the cached types expire after a while.
+ */
+@Component(immediate = true)
+public class ResourceTypeChangeListener implements EventListener {
+
+    static final String SUBSERVICE = "type-listener";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceTypeChangeListener.class);
+
+    private static final String[] PATHS = { "/apps", "/libs", "/jcr:system/jcr:nodeTypes" };
+
+    private static final int EVENT_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED
+            | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+
+    private final ResourceTypeHierarchy hierarchy;
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    private final List<EventListener> listeners = new ArrayList<>();
+
+    private ResourceResolver resolver;
+
+    public ResourceTypeChangeListener() {
+        this(ResourceTypeHierarchy.getInstance());
+    }
+
+    ResourceTypeChangeListener(ResourceTypeHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+
+    @Activate
+    void activate() {
+        try {
+            resolver = resolverFactory.getServiceResourceResolver(
+                    Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE));
+            Session session = resolver.adaptTo(Session.class);
+            if (session != null) {
+                register(session.getWorkspace().getObservationManager());
+            }
+        } catch (LoginException | RepositoryException e) {
+            LOG.error("Can't listen to the type changes", e);
+        }
+    }
+
+    @Deactivate
+    void deactivate() {
+        if (resolver == null) {
+            return;
+        }
+        try {
+            Session session = resolver.adaptTo(Session.class);
+            if (session != null) {
+                unregister(session.getWorkspace().getObservationManager());
+            }
+        } catch (RepositoryException e) {
+            LOG.error("Can't unregister the type listener", e);
+        } finally {
+            resolver.close();
+            resolver = null;
+        }
+    }
+
+    public void register(ObservationManager observationManager) throws RepositoryException {
+        // registering the same listener again would replace its previous path
+        for (String path : PATHS) {
+            EventListener listener = this::onEvent;
+            observationManager.addEventListener(listener, EVENT_TYPES, path, true, null, null, false);
+            listeners.add(listener);
+        }
+    }
+
+    public void unregister(ObservationManager observationManager) throws RepositoryException {
+        for (EventListener listener : listeners) {
+            observationManager.removeEventListener(listener);
+        }
+        listeners.clear();
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        hierarchy.invalidate();
+        NodeTypeHierarchy.invalidate();
+    }
+}
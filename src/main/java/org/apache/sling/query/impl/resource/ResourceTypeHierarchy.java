@@ -0,0 +1,158 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.resource;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+
+/**
+ * Shared cache of the resource type inheritance chains, read from the
+ * {@code sling:resourceSuperType} properties of the type definitions. The
+ * chain depends on the definitions the user can read and on the search path,
+ * so it's cached separately for each user and search path. Chains read by
+ * resolvers without a user id aren't cached. The cache is cleared by
+ * {@link ResourceTypeChangeListener} when anything changes under /apps or
+ * /libs. As the listener may not be registered, the entries also expire after
+ * a while. The number of the entries is limited: once it's reached, the expired
+ * entries are purged before a new one is added and, if that's not enough, the
+ * oldest one is evicted.
+ */
+public final class ResourceTypeHierarchy {
+
+    private static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final ResourceTypeHierarchy INSTANCE = new ResourceTypeHierarchy(DEFAULT_TTL,
+            DEFAULT_MAX_ENTRIES);
+
+    private final ConcurrentMap<List<String>, Entry> cache = new ConcurrentHashMap<>();
+
+    private final long ttl;
+
+    private final int maxEntries;
+
+    ResourceTypeHierarchy(long ttl, int maxEntries) {
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+    }
+
+    public static ResourceTypeHierarchy getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param resolver     resolver used to read the type definitions
+     * @param resourceType resource type
+     * @return the resource type and all its super types
+     */
+    public Set<String> getTypes(ResourceResolver resolver, String resourceType) {
+        UnaryOperator<String> superTypeReader = type -> ResourceUtil.getResourceSuperType(resolver, type);
+        String userId = resolver.getUserID();
+        if (userId == null) {
+            return readTypes(resourceType, superTypeReader);
+        }
+        String[] searchPath = resolver.getSearchPath();
+        String scope = userId + ":" + (searchPath == null ? "" : String.join(",", searchPath));
+        return getTypes(scope, resourceType, superTypeReader);
+    }
+
+    /**
+     * @param scope           user and search path the chain is read with
+     * @param resourceType    resource type
+     * @param superTypeReader returns the super type of the given type
+     * @return the resource type and all its super types
+     */
+    Set<String> getTypes(String scope, String resourceType, UnaryOperator<String> superTypeReader) {
+        List<String> key = Arrays.asList(scope, resourceType);
+        Entry entry = cache.get(key);
+        long now = System.currentTimeMillis();
+        if (entry == null || entry.expires < now) {
+            entry = new Entry(readTypes(resourceType, superTypeReader), now + ttl);
+            if (!cache.containsKey(key)) {
+                makeRoom(now);
+            }
+            cache.put(key, entry);
+        }
+        return entry.types;
+    }
+
+    public void invalidate() {
+        cache.clear();
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    // the entries expire in the order they were added, so the oldest one expires first
+    private void makeRoom(long now) {
+        if (cache.size() < maxEntries) {
+            return;
+        }
+        cache.values().removeIf(e -> e.expires < now);
+        while (cache.size() >= maxEntries) {
+            List<String> oldest = null;
+            long oldestExpires = Long.MAX_VALUE;
+            for (Map.Entry<List<String>, Entry> e : cache.entrySet()) {
+                if (e.getValue().expires <= oldestExpires) {
+                    oldest = e.getKey();
+                    oldestExpires = e.getValue().expires;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            cache.remove(oldest);
+        }
+    }
+
+    private static Set<String> readTypes(String resourceType, UnaryOperator<String> superTypeReader) {
+        Set<String> types = new LinkedHashSet<>();
+        String type = resourceType;
+        // the set stops the loop if the chain contains a cycle
+        while (type != null && types.add(type)) {
+            type = superTypeReader.apply(type);
+        }
+        return Collections.unmodifiableSet(types);
+    }
+
+    private static class Entry {
+
+        private final Set<String> types;
+
+        private final long expires;
+
+        private Entry(Set<String> types, long expires) {
+            this.types = types;
+            this.expires = expires;
+        }
+    }
+}
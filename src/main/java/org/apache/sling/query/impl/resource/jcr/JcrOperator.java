@@ -22,38 +22,58 @@ package org.apache.sling.query.impl.resource.jcr;
 public enum JcrOperator {
     CONTAINS("*=") {
         @Override
-        public String getJcrQueryFragment(String key, String value) {
-            return String.format("s.[%s] LIKE '%%%s%%'", key, value);
+        public String getJcrQueryFragment(String selectorName, String key, String variable) {
+            return String.format("%s.[%s] LIKE %s", selectorName, key, variable);
+        }
+
+        @Override
+        public String getBoundValue(String value) {
+            return "%" + value + "%";
         }
     },
     CONTAINS_WORD("~=") {
         @Override
-        public String getJcrQueryFragment(String key, String value) {
-            return CONTAINS.getJcrQueryFragment(key, value);
+        public String getJcrQueryFragment(String selectorName, String key, String variable) {
+            return CONTAINS.getJcrQueryFragment(selectorName, key, variable);
+        }
+
+        @Override
+        public String getBoundValue(String value) {
+            return CONTAINS.getBoundValue(value);
         }
     },
     ENDS_WITH("$=") {
         @Override
-        public String getJcrQueryFragment(String key, String value) {
-            return String.format("s.[%s] LIKE '%%%s'", key, value);
+        public String getJcrQueryFragment(String selectorName, String key, String variable) {
+            return String.format("%s.[%s] LIKE %s", selectorName, key, variable);
+        }
+
+        @Override
+        public String getBoundValue(String value) {
+            return "%" + value;
         }
     },
     EQUALS("=") {
         @Override
-        public String getJcrQueryFragment(String key, String value) {
-            return String.format("s.[%s] = '%s'", key, value);
+        public String getJcrQueryFragment(String selectorName, String key, String variable) {
+            return String.format("%s.[%s] = %s", selectorName, key, variable);
         }
     },
     NOT_EQUAL("!=") {
         @Override
-        public String getJcrQueryFragment(String key, String value) {
-            return String.format("s.[%s] != '%s'", key, value);
+        public String getJcrQueryFragment(String selectorName, String key, String variable) {
+            return String.format("%s.[%s] != %s", selectorName, key, variable);
         }
     },
     STARTS_WITH("^=") {
         @Override
-        public String getJcrQueryFragment(String key, String value) {
-            return String.format("s.[%s] LIKE '%s%%'", key, value);
+        public String getJcrQueryFragment(String selectorName, String key, String variable) {
+            return String.format("%s.[%s] LIKE %s", selectorName, key, variable);
+        }
+
+        @Override
+        public String getBoundValue(String value) {
+            return value + "%";
         }
     };
 
@@ -63,7 +83,21 @@ public enum JcrOperator {
         this.operator = operator;
     }
 
-    public abstract String getJcrQueryFragment(String key, String value);
+    /**
+     * @param selectorName name of the query selector
+     * @param key          property name or relative path
+     * @param variable     bind variable holding the value
+     * @return query condition
+     */
+    public abstract String getJcrQueryFragment(String selectorName, String key, String variable);
+
+    /**
+     * @param value attribute value from the selector
+     * @return value to be bound to the variable used in the query condition
+     */
+    public String getBoundValue(String value) {
+        return value;
+    }
 
     public static JcrOperator getSelectorOperator(String operator) {
         for (JcrOperator o : values()) {
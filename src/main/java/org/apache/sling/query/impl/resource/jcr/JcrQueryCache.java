@@ -0,0 +1,89 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.resource.jcr;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+import javax.jcr.Session;
+
+import org.apache.sling.query.impl.resource.jcr.query.JcrQuery;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+
+/**
+ * Query templates of a session, shared by all the queries using its resource
+ * resolver and cached by the selector segments. The prepared JCR queries
+ * aren't cached, as they refer to their session and would keep it reachable
+ * after it's been closed; the statements of the templates use bind variables
+ * instead of the values, so the repository can reuse their parsed form.
+ */
+public final class JcrQueryCache {
+
+    private static final int MAX_ENTRIES = 100;
+
+    private static final Map<Session, JcrQueryCache> CACHES = Collections
+            .synchronizedMap(new WeakHashMap<Session, JcrQueryCache>());
+
+    private final Map<List<SelectorSegment>, JcrQuery> templates = createLruMap();
+
+    private JcrQueryCache() {
+    }
+
+    /**
+     * @param session JCR session
+     * @return cache of the session
+     */
+    public static JcrQueryCache get(Session session) {
+        synchronized (CACHES) {
+            JcrQueryCache cache = CACHES.get(session);
+            if (cache == null) {
+                cache = new JcrQueryCache();
+                CACHES.put(session, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @param segments selector segments
+     * @param builder  builds the template if it's not cached yet
+     * @return query template for the segments
+     */
+    public JcrQuery getTemplate(List<SelectorSegment> segments, Function<List<SelectorSegment>, JcrQuery> builder) {
+        synchronized (templates) {
+            return templates.computeIfAbsent(segments, builder);
+        }
+    }
+
+    private static <K, V> Map<K, V> createLruMap() {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+}
@@ -19,37 +19,271 @@
 
 package org.apache.sling.query.impl.resource.jcr;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
 
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
+
+import org.apache.sling.api.SlingException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.query.api.BudgetExceededException;
+import org.apache.sling.query.api.QueryOptions;
 import org.apache.sling.query.impl.iterator.AbstractIterator;
+import org.apache.sling.query.impl.resource.jcr.query.JcrQuery;
 import org.apache.sling.query.impl.resource.jcr.query.JcrQueryBuilder;
-import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Iterates over the JCR-SQL2 query result. The query is executed once, lazily,
+ * and its rows are read from the repository cursor in pages of the given size,
+ * with the next page read only when the previous one has been consumed, so the
+ * rows that aren't needed by the subsequent functions are never read. The
+ * statement uses bind variables if the resolver is backed by a JCR session and
+ * its template is reused from the {@link JcrQueryCache} of the session,
+ * otherwise it's passed to {@link ResourceResolver#findResources(String, String)}.
+ * Descendants of a few roots may be fetched with a single query. The limit and
+ * timeout from the {@link QueryOptions} are enforced here, as they apply to all
+ * pages. Reading rows past the timeout fails with the
+ * {@link BudgetExceededException}, rather than returning a truncated result,
+ * and a query the repository refuses to run (eg. a traversal with
+ * OPTION(TRAVERSAL FAIL) or an unknown index tag) fails with the
+ * {@link SlingException} carrying the statement.
+ */
 public class JcrQueryIterator extends AbstractIterator<Resource> {
 
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(JcrQueryIterator.class);
+
     private final ResourceResolver resolver;
 
-    private final String query;
+    private final Session session;
+
+    private final JcrQuery query;
+
+    private final List<String> rootPaths;
+
+    private final int pageSize;
+
+    private final QueryOptions options;
+
+    private final Set<String> seen;
+
+    private final Deque<Resource> page = new ArrayDeque<>();
+
+    private RowIterator rows;
+
+    private Iterator<Resource> resources;
+
+    private long rowsRead;
 
-    private Iterator<Resource> currentIterator;
+    private long deadline;
 
-    public JcrQueryIterator(List<SelectorSegment> segments, Resource root, JcrTypeResolver typeResolver) {
-        JcrQueryBuilder builder = new JcrQueryBuilder(typeResolver);
-        query = builder.buildQuery(segments, root.getPath());
-        resolver = root.getResourceResolver();
+    private boolean executed;
+
+    private boolean finished;
+
+    public JcrQueryIterator(JcrQuery query, Resource root) {
+        this(query, root, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param query    query template built for the selector segments
+     * @param root     root of the searched subtree
+     * @param pageSize number of rows read at once, 0 or less to read the whole
+     *                 result at once
+     */
+    public JcrQueryIterator(JcrQuery query, Resource root, int pageSize) {
+        this(query, Collections.singletonList(root), pageSize, QueryOptions.DEFAULT);
+    }
+
+    /**
+     * @param query    query template built for the selector segments
+     * @param roots    roots of the searched subtrees, they have to share the
+     *                 resource resolver
+     * @param pageSize number of rows read at once, 0 or less to read the whole
+     *                 result at once
+     * @param options  repository options, limit and timeout of the query
+     */
+    public JcrQueryIterator(JcrQuery query, List<Resource> roots, int pageSize, QueryOptions options) {
+        this(query, getPaths(roots), roots.get(0).getResourceResolver(), pageSize, options);
+    }
+
+    private JcrQueryIterator(JcrQuery query, List<String> rootPaths, ResourceResolver resolver, int pageSize,
+            QueryOptions options) {
+        this(query, rootPaths, resolver, resolver.adaptTo(Session.class), pageSize, options);
+    }
+
+    // the session is passed separately, so the query execution can be tested without a resolver
+    JcrQueryIterator(JcrQuery query, List<String> rootPaths, ResourceResolver resolver, Session session,
+            int pageSize, QueryOptions options) {
+        this.query = query;
+        this.rootPaths = rootPaths;
+        this.resolver = resolver;
+        this.session = session;
+        this.pageSize = pageSize;
+        this.options = options;
+        // each node may be returned a few times by a join, once for every matching descendant
+        if (query.hasJoins()) {
+            seen = new HashSet<>();
+        } else {
+            seen = null;
+        }
+    }
+
+    private static List<String> getPaths(List<Resource> roots) {
+        List<String> paths = new ArrayList<>();
+        for (Resource root : roots) {
+            paths.add(root.getPath());
+        }
+        return paths;
     }
 
     @Override
     protected Resource getElement() {
-        if (currentIterator == null) {
-            currentIterator = resolver.findResources(query, "JCR-SQL2");
+        if (page.isEmpty()) {
+            readNextPage();
         }
-        if (currentIterator.hasNext()) {
-            return currentIterator.next();
-        } else {
+        return page.poll();
+    }
+
+    /**
+     * Count the rows of the query instead of iterating over them. The result
+     * size reported by the repository is used where available, otherwise the
+     * rows are read without creating the resources.
+     *
+     * @return number of the matching nodes
+     * @throws SlingException if the query can't be executed
+     * @throws BudgetExceededException if the query runs longer than its timeout
+     */
+    public long count() {
+        if (session == null) {
+            long count = 0;
+            while (hasNext()) {
+                next();
+                count++;
+            }
+            return count;
+        }
+        try {
+            if (options.getTimeout() > 0) {
+                deadline = System.currentTimeMillis() + options.getTimeout();
+            }
+            rows = executeQuery().getRows();
+            long size = rows.getSize();
+            if (seen == null && size >= 0) {
+                return size;
+            }
+            long count = 0;
+            while (rows.hasNext() && !isLimitReached()) {
+                rowsRead++;
+                String path = rows.nextRow().getPath(JcrQueryBuilder.SELECTOR_NAME);
+                if (path != null && (seen == null || seen.add(path))) {
+                    count++;
+                }
+            }
+            return count;
+        } catch (RepositoryException e) {
+            throw new SlingException("Can't count query " + query.getLiteralStatement(rootPaths, options), e);
+        }
+    }
+
+    private void readNextPage() {
+        if (!executed) {
+            executed = true;
+            execute();
+        }
+        while (!finished && (pageSize <= 0 || page.size() < pageSize)) {
+            if (isLimitReached()) {
+                finished = true;
+                break;
+            }
+            Resource resource;
+            if (rows != null && rows.hasNext()) {
+                resource = readRow();
+            } else if (resources != null && resources.hasNext()) {
+                resource = resources.next();
+                if (seen != null && !seen.add(resource.getPath())) {
+                    resource = null;
+                }
+            } else {
+                finished = true;
+                break;
+            }
+            rowsRead++;
+            if (resource != null) {
+                page.add(resource);
+            }
+        }
+    }
+
+    private void execute() {
+        if (options.getTimeout() > 0) {
+            deadline = System.currentTimeMillis() + options.getTimeout();
+        }
+        try {
+            if (session == null) {
+                resources = resolver.findResources(query.getLiteralStatement(rootPaths, options), Query.JCR_SQL2);
+            } else {
+                rows = executeQuery().getRows();
+            }
+        } catch (RepositoryException | SlingException e) {
+            finished = true;
+            throw new SlingException("Can't execute query " + query.getLiteralStatement(rootPaths, options), e);
+        }
+    }
+
+    private QueryResult executeQuery() throws RepositoryException {
+        String statement = query.getStatement(rootPaths, options);
+        Query prepared = session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2);
+        ValueFactory valueFactory = session.getValueFactory();
+        for (Entry<String, String> binding : query.getBindings().entrySet()) {
+            prepared.bindValue(binding.getKey(), valueFactory.createValue(binding.getValue()));
+        }
+        if (options.getLimit() > 0) {
+            prepared.setLimit(options.getLimit());
+        }
+        return prepared.execute();
+    }
+
+    /**
+     * @return true if the limit of the rows has been read
+     * @throws BudgetExceededException if the timeout has passed
+     */
+    private boolean isLimitReached() {
+        if (options.getLimit() > 0 && rowsRead >= options.getLimit()) {
+            return true;
+        }
+        if (deadline > 0 && System.currentTimeMillis() > deadline) {
+            throw new BudgetExceededException("Query " + query.getLiteralStatement(rootPaths, options)
+                    + " exceeded the timeout of " + options.getTimeout() + " ms");
+        }
+        return false;
+    }
+
+    private Resource readRow() {
+        try {
+            String path = rows.nextRow().getPath(JcrQueryBuilder.SELECTOR_NAME);
+            if (path == null || (seen != null && !seen.add(path))) {
+                return null;
+            }
+            return resolver.getResource(path);
+        } catch (RepositoryException e) {
+            LOG.error("Can't read query row", e);
             return null;
         }
     }
@@ -0,0 +1,106 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.resource.jcr;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.NodeTypeIterator;
+import javax.jcr.nodetype.NodeTypeManager;
+
+/**
+ * Immutable snapshot of the node types registered in a repository, together
+ * with the supertypes of each type. The snapshot is shared by all sessions of
+ * the repository and replaced with a new one when a type registered later is
+ * found.
+ */
+public final class NodeTypeHierarchy {
+
+    private static final Map<Repository, NodeTypeHierarchy> SNAPSHOTS = Collections
+            .synchronizedMap(new WeakHashMap<Repository, NodeTypeHierarchy>());
+
+    private static final NodeTypeHierarchy EMPTY = new NodeTypeHierarchy(
+            Collections.<String, Set<String>>emptyMap());
+
+    // node type name -> names of the type and all its supertypes
+    private final Map<String, Set<String>> supertypes;
+
+    private NodeTypeHierarchy(Map<String, Set<String>> supertypes) {
+        this.supertypes = supertypes;
+    }
+
+    static NodeTypeHierarchy get(Repository repository, NodeTypeManager nodeTypeManager) throws RepositoryException {
+        NodeTypeHierarchy hierarchy = SNAPSHOTS.get(repository);
+        if (hierarchy == null) {
+            hierarchy = refresh(repository, nodeTypeManager);
+        }
+        return hierarchy;
+    }
+
+    static NodeTypeHierarchy refresh(Repository repository, NodeTypeManager nodeTypeManager)
+            throws RepositoryException {
+        NodeTypeHierarchy hierarchy = read(nodeTypeManager);
+        if (repository != null) {
+            SNAPSHOTS.put(repository, hierarchy);
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Drop all snapshots, so the node types are read again by the next query.
+     */
+    public static void invalidate() {
+        SNAPSHOTS.clear();
+    }
+
+    static NodeTypeHierarchy empty() {
+        return EMPTY;
+    }
+
+    boolean contains(String name) {
+        return supertypes.containsKey(name);
+    }
+
+    boolean isSubtype(String supertype, String subtype) {
+        Set<String> types = supertypes.get(subtype);
+        return types != null && types.contains(supertype);
+    }
+
+    private static NodeTypeHierarchy read(NodeTypeManager nodeTypeManager) throws RepositoryException {
+        Map<String, Set<String>> supertypes = new HashMap<>();
+        NodeTypeIterator iterator = nodeTypeManager.getAllNodeTypes();
+        while (iterator.hasNext()) {
+            NodeType type = iterator.nextNodeType();
+            Set<String> names = new HashSet<>();
+            names.add(type.getName());
+            for (NodeType supertype : type.getSupertypes()) {
+                names.add(supertype.getName());
+            }
+            supertypes.put(type.getName(), Collections.unmodifiableSet(names));
+        }
+        return new NodeTypeHierarchy(Collections.unmodifiableMap(supertypes));
+    }
+}
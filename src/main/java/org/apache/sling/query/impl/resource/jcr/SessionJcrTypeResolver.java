@@ -19,32 +19,48 @@
 
 package org.apache.sling.query.impl.resource.jcr;
 
+import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.nodetype.NoSuchNodeTypeException;
 import javax.jcr.nodetype.NodeTypeManager;
 
 import org.apache.sling.api.resource.ResourceResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Resolves the node types using a snapshot of the type hierarchy, so the checks
+ * are simple lookups. The repository is asked only about names missing in the
+ * snapshot, which is refreshed if such type has been registered in the
+ * meantime.
+ */
 public class SessionJcrTypeResolver implements JcrTypeResolver {
 
     private static final Logger LOG = LoggerFactory.getLogger(SessionJcrTypeResolver.class);
 
     private final NodeTypeManager nodeTypeManager;
 
+    private final Repository repository;
+
+    private volatile NodeTypeHierarchy hierarchy;
+
     public SessionJcrTypeResolver(ResourceResolver resolver) {
         NodeTypeManager m = null;
+        Repository r = null;
+        NodeTypeHierarchy h = NodeTypeHierarchy.empty();
         try {
-            if (resolver != null) {
-                m = resolver.adaptTo(Session.class).getWorkspace().getNodeTypeManager();
+            Session session = resolver == null ? null : resolver.adaptTo(Session.class);
+            if (session != null) {
+                m = session.getWorkspace().getNodeTypeManager();
+                r = session.getRepository();
+                h = NodeTypeHierarchy.get(r, m);
             }
         } catch (RepositoryException e) {
             LOG.error("Can't get node type manager", e);
-            m = null;
         }
         nodeTypeManager = m;
+        repository = r;
+        hierarchy = h;
     }
 
     @Override
@@ -55,11 +71,15 @@ public class SessionJcrTypeResolver implements JcrTypeResolver {
         if (name == null || name.contains("/")) {
             return false;
         }
+        if (hierarchy.contains(name)) {
+            return true;
+        }
         try {
-            nodeTypeManager.getNodeType(name);
+            if (!nodeTypeManager.hasNodeType(name)) {
+                return false;
+            }
+            hierarchy = NodeTypeHierarchy.refresh(repository, nodeTypeManager);
             return true;
-        } catch (NoSuchNodeTypeException e) {
-            return false;
         } catch (RepositoryException e) {
             LOG.error("Can't check node type " + name, e);
             return false;
@@ -68,18 +88,10 @@ public class SessionJcrTypeResolver implements JcrTypeResolver {
 
     @Override
     public boolean isSubtype(String supertype, String subtype) {
-        if (nodeTypeManager == null) {
-            return false;
-        }
         if (!isJcrType(subtype) || !isJcrType(supertype)) {
             return false;
         }
-        try {
-            return nodeTypeManager.getNodeType(subtype).isNodeType(supertype);
-        } catch (RepositoryException e) {
-            LOG.error("Can't compare two node types: " + subtype + " and " + supertype, e);
-            return false;
-        }
+        return hierarchy.isSubtype(supertype, subtype);
     }
 
 }
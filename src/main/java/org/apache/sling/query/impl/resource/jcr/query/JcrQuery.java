@@ -0,0 +1,181 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.resource.jcr.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.query.api.QueryOptions;
+import org.apache.sling.query.api.QueryOptions.Traversal;
+import org.apache.sling.query.impl.resource.jcr.query.Formula.Operator;
+
+/**
+ * JCR-SQL2 query template built for a list of selector segments. Values are
+ * represented by bind variables, so the statement is the same for every query
+ * with the same selector shape. Only the root path has to be inlined, as
+ * ISDESCENDANTNODE() doesn't accept bind variables.
+ */
+public class JcrQuery {
+
+    private static final Pattern BIND_VARIABLE = Pattern.compile("\\$(\\w+)");
+
+    private final String source;
+
+    private final Term condition;
+
+    private final Map<String, String> bindings;
+
+    private final boolean joined;
+
+    JcrQuery(String source, Term condition, Map<String, String> bindings, boolean joined) {
+        this.source = source;
+        this.condition = condition;
+        this.bindings = Collections.unmodifiableMap(bindings);
+        this.joined = joined;
+    }
+
+    /**
+     * @param rootPath path of the searched subtree
+     * @return statement with bind variables for the values
+     */
+    public String getStatement(String rootPath) {
+        return getStatement(Collections.singletonList(rootPath));
+    }
+
+    /**
+     * The root conditions are OR'ed, so the statement returns descendants of any
+     * of the given paths.
+     *
+     * @param rootPaths paths of the searched subtrees
+     * @return statement with bind variables for the values
+     */
+    public String getStatement(Collection<String> rootPaths) {
+        return getStatement(rootPaths, QueryOptions.DEFAULT);
+    }
+
+    /**
+     * @param rootPaths paths of the searched subtrees
+     * @param options   options added to the OPTION() clause
+     * @return statement with bind variables for the values
+     */
+    public String getStatement(Collection<String> rootPaths, QueryOptions options) {
+        StringBuilder query = new StringBuilder(source);
+        List<Term> conditions = new ArrayList<>();
+        Formula rootCondition = getRootCondition(rootPaths);
+        if (rootCondition != null) {
+            conditions.add(rootCondition);
+        }
+        if (condition != null) {
+            conditions.add(condition);
+        }
+        if (!conditions.isEmpty()) {
+            query.append(" WHERE ").append(new Formula(Operator.AND, conditions).buildString());
+        }
+        List<String> optionList = new ArrayList<>();
+        if (options.getTraversal() != Traversal.DEFAULT) {
+            optionList.add("TRAVERSAL " + options.getTraversal());
+        }
+        if (options.getIndexTag() != null) {
+            optionList.add("INDEX TAG " + options.getIndexTag());
+        }
+        if (!optionList.isEmpty()) {
+            query.append(" OPTION(").append(StringUtils.join(optionList, ", ")).append(")");
+        }
+        return query.toString();
+    }
+
+    /**
+     * Values of the bind variables used in the statement, without the leading
+     * {@code $}.
+     *
+     * @return map of the bind variable names and values
+     */
+    public Map<String, String> getBindings() {
+        return bindings;
+    }
+
+    /**
+     * Render the statement with the values inlined as string literals. It's meant
+     * for logging and debugging, the repository should get the bound statement.
+     *
+     * @param rootPath path of the searched subtree
+     * @return statement with literal values
+     */
+    public String getLiteralStatement(String rootPath) {
+        return getLiteralStatement(Collections.singletonList(rootPath));
+    }
+
+    /**
+     * @param rootPaths paths of the searched subtrees
+     * @return statement with literal values
+     * @see #getLiteralStatement(String)
+     */
+    public String getLiteralStatement(Collection<String> rootPaths) {
+        return getLiteralStatement(rootPaths, QueryOptions.DEFAULT);
+    }
+
+    /**
+     * @param rootPaths paths of the searched subtrees
+     * @param options   options added to the OPTION() clause
+     * @return statement with literal values
+     * @see #getLiteralStatement(String)
+     */
+    public String getLiteralStatement(Collection<String> rootPaths, QueryOptions options) {
+        Matcher matcher = BIND_VARIABLE.matcher(getStatement(rootPaths, options));
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            String value = bindings.get(matcher.group(1));
+            String literal = value == null ? matcher.group() : "'" + StringUtils.replace(value, "'", "''") + "'";
+            matcher.appendReplacement(result, Matcher.quoteReplacement(literal));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    public boolean hasJoins() {
+        return joined;
+    }
+
+    private Formula getRootCondition(Collection<String> rootPaths) {
+        List<Term> conditions = new ArrayList<>();
+        for (String rootPath : rootPaths) {
+            if (StringUtils.isBlank(rootPath) || "/".equals(rootPath)) {
+                return null;
+            }
+            String escapedPath = StringUtils.replace(rootPath, "'", "''");
+            if (joined) {
+                conditions.add(new Atomic(String.format("ISDESCENDANTNODE(%s, '%s')", JcrQueryBuilder.SELECTOR_NAME,
+                        escapedPath)));
+            } else {
+                conditions.add(new Atomic(String.format("ISDESCENDANTNODE('%s')", escapedPath)));
+            }
+        }
+        if (conditions.isEmpty()) {
+            return null;
+        }
+        return new Formula(Operator.OR, conditions);
+    }
+}
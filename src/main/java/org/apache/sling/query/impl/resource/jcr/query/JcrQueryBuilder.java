@@ -20,18 +20,29 @@
 package org.apache.sling.query.impl.resource.jcr.query;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.query.api.internal.FullTextMatcher;
 import org.apache.sling.query.impl.resource.jcr.JcrOperator;
 import org.apache.sling.query.impl.resource.jcr.JcrTypeResolver;
 import org.apache.sling.query.impl.resource.jcr.query.Formula.Operator;
 import org.apache.sling.query.impl.selector.parser.Attribute;
+import org.apache.sling.query.impl.selector.parser.Modifier;
+import org.apache.sling.query.impl.selector.parser.Selector;
+import org.apache.sling.query.impl.selector.parser.SelectorParser;
 import org.apache.sling.query.impl.selector.parser.SelectorSegment;
 
 public class JcrQueryBuilder {
 
+    public static final String SELECTOR_NAME = "s";
+
+    private static final List<String> POSITIONAL_MODIFIERS = Arrays.asList("eq", "first", "last", "gt", "lt", "odd",
+            "even");
+
     private final JcrTypeResolver typeResolver;
 
     public JcrQueryBuilder(JcrTypeResolver typeResolver) {
@@ -39,34 +50,90 @@ public class JcrQueryBuilder {
     }
 
     public String buildQuery(List<SelectorSegment> segments, String rootPath) {
+        return build(segments).getLiteralStatement(rootPath);
+    }
+
+    /**
+     * Build the query template for the given segments. The values used in the
+     * conditions are passed as bind variables, so the template may be prepared
+     * once and executed for any root with any values.
+     *
+     * @param segments selector segments passed to the query
+     * @return query template
+     */
+    public JcrQuery build(List<SelectorSegment> segments) {
+        Map<String, String> bindings = new LinkedHashMap<>();
+        List<Join> joins = prepareJoins(segments, bindings);
         StringBuilder query = new StringBuilder();
         query.append("SELECT * FROM [");
         query.append(findPrimaryType(segments));
         query.append("]");
-        query.append(" AS s");
-
-        String conditionString = getConditionString(segments, rootPath);
-        if (StringUtils.isNotBlank(conditionString)) {
-            query.append(" WHERE ").append(conditionString);
+        query.append(" AS ").append(SELECTOR_NAME);
+        for (Join join : joins) {
+            query.append(" INNER JOIN [").append(join.type).append("] AS ").append(join.selectorName);
+            query.append(" ON ISDESCENDANTNODE(").append(join.selectorName).append(", ").append(SELECTOR_NAME)
+                    .append(")");
         }
-        return query.toString();
+        Formula condition = prepareAlternativeConditions(segments, joins, bindings);
+        return new JcrQuery(query.toString(), condition, bindings, !joins.isEmpty());
+    }
+
+    /**
+     * Check if the query built for the given segments joins other selectors. In
+     * such case the result has to be read row by row, using the {@code s}
+     * selector.
+     *
+     * @param segments selector segments passed to the query
+     * @return true if the query contains joins
+     */
+    public boolean hasJoins(List<SelectorSegment> segments) {
+        return !prepareJoins(segments, new LinkedHashMap<String, String>()).isEmpty();
     }
 
-    private String getConditionString(List<SelectorSegment> segments, String rootPath) {
-        Formula formula = prepareAlternativeConditions(segments);
-        if (StringUtils.isNotBlank(rootPath) && !"/".equals(rootPath)) {
-            List<Term> conditions = new ArrayList<Term>();
-            conditions.add(new Atomic(String.format("ISDESCENDANTNODE('%s')", rootPath)));
-            if (formula != null) {
-                conditions.add(formula);
+    /**
+     * Check if the condition represented by the modifier is guaranteed by the
+     * query built for the given segment, so it doesn't have to be evaluated
+     * again for the returned nodes.
+     *
+     * @param segment  single selector segment passed to the query
+     * @param modifier one of the segment modifiers
+     * @return true if the modifier is already enforced by the query
+     */
+    public boolean isPushedDown(SelectorSegment segment, Modifier modifier) {
+        for (Modifier m : getPushableModifiers(segment.getModifiers())) {
+            if (m == modifier) {
+                if (!"has".equals(StringUtils.lowerCase(m.getName()))) {
+                    return false;
+                }
+                SelectorSegment joined = prepareJoinedSegment(m);
+                return joined != null && isMatchedExactly(joined);
             }
-            formula = new Formula(Operator.AND, conditions);
         }
-        if (formula == null) {
-            return null;
-        } else {
-            return formula.buildString();
+        return false;
+    }
+
+    /**
+     * Check if the query built for the given segments returns exactly the nodes
+     * matching them, so the result doesn't have to be filtered in Java, eg. to be
+     * counted.
+     *
+     * @param segments selector segments passed to the query
+     * @return true if the query is an exact translation of the segments
+     */
+    public boolean isExact(List<SelectorSegment> segments) {
+        if (segments.size() != 1) {
+            return false;
+        }
+        SelectorSegment segment = segments.get(0);
+        if (!isExactlyTranslatable(segment) || !isMatchedExactly(segment)) {
+            return false;
         }
+        for (Modifier modifier : segment.getModifiers()) {
+            if (!isPushedDown(segment, modifier)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private String findPrimaryType(List<SelectorSegment> segments) {
@@ -90,11 +157,12 @@ public class JcrQueryBuilder {
         return result;
     }
 
-    private static Formula prepareAlternativeConditions(List<SelectorSegment> segments) {
+    private Formula prepareAlternativeConditions(List<SelectorSegment> segments, List<Join> joins,
+            Map<String, String> bindings) {
         List<Term> list = new ArrayList<>();
         for (SelectorSegment segment : segments) {
             Formula conditions = prepareSegmentConditions(segment.getType(), segment.getName(),
-                    segment.getAttributes());
+                    segment.getAttributes(), segment.getModifiers(), joins, bindings);
             if (conditions != null) {
                 list.add(conditions);
             }
@@ -106,23 +174,32 @@ public class JcrQueryBuilder {
         }
     }
 
-    private static Formula prepareSegmentConditions(String resourceType, String resourceName,
-            List<Attribute> attributes) {
+    private Formula prepareSegmentConditions(String resourceType, String resourceName,
+            List<Attribute> attributes, List<Modifier> modifiers, List<Join> joins, Map<String, String> bindings) {
         List<Term> conditions = new ArrayList<>();
         if (StringUtils.isNotBlank(resourceType) && !StringUtils.contains(resourceType, ':')) {
-            conditions.add(new Atomic(String.format("s.[sling:resourceType] = '%s'", resourceType)));
+            conditions.add(new Atomic(String.format("s.[sling:resourceType] = %s", bind(bindings, resourceType))));
         }
         if (StringUtils.isNotBlank(resourceName)) {
-            conditions.add(new Atomic(String.format("NAME(s) = '%s'", resourceName)));
+            conditions.add(new Atomic(String.format("NAME(s) = %s", bind(bindings, resourceName))));
         }
         if (attributes != null) {
             for (Attribute a : attributes) {
-                String attributeCondition = getAttributeCondition(a);
+                String attributeCondition = getAttributeCondition(SELECTOR_NAME, a, bindings);
                 if (StringUtils.isNotBlank(attributeCondition)) {
                     conditions.add(new Atomic(attributeCondition));
                 }
             }
         }
+        if (modifiers != null) {
+            conditions.addAll(prepareNegations(modifiers, bindings));
+            conditions.addAll(prepareFullTextConditions(modifiers, bindings));
+        }
+        for (Join join : joins) {
+            if (join.condition != null) {
+                conditions.add(join.condition);
+            }
+        }
         if (conditions.isEmpty()) {
             return null;
         } else {
@@ -130,13 +207,277 @@ public class JcrQueryBuilder {
         }
     }
 
-    private static String getAttributeCondition(Attribute attribute) {
-        if (attribute.getKey().contains("/")) {
+    /**
+     * The query result is only a pre-filter, so it has to be a superset of what
+     * the selector matches. A :not() modifier is pushed down only if it's not
+     * preceded by a positional modifier (which would be applied first in Java)
+     * and only for those alternatives that can be translated exactly. Oak
+     * converts the bound value to the property type for = and !=, while Java
+     * compares strings (eg. "01" equals a long 1 only in the query), so the
+     * alternatives using these operators are skipped.
+     */
+    private List<Term> prepareNegations(List<Modifier> modifiers, Map<String, String> bindings) {
+        List<Term> negations = new ArrayList<>();
+        for (Modifier modifier : getPushableModifiers(modifiers)) {
+            if (!"not".equals(StringUtils.lowerCase(modifier.getName()))
+                    || StringUtils.isBlank(modifier.getArgument())) {
+                continue;
+            }
+            for (Selector selector : SelectorParser.parse(modifier.getArgument())) {
+                SelectorSegment segment = getSingleSegment(selector);
+                Term condition = null;
+                if (segment != null && isNegatable(segment)) {
+                    condition = prepareExactConditions(segment, SELECTOR_NAME, false, bindings);
+                }
+                if (condition != null) {
+                    negations.add(new Not(condition));
+                }
+            }
+        }
+        return negations;
+    }
+
+    /**
+     * A :contains() modifier becomes a CONTAINS() constraint, so the words are
+     * looked up in the full-text index. Only the tokenised words are bound, so
+     * the full-text syntax characters of the argument aren't interpreted. The
+     * modifier is still checked in Java, as the index may be more lenient (eg.
+     * it may use stemming).
+     */
+    private List<Term> prepareFullTextConditions(List<Modifier> modifiers, Map<String, String> bindings) {
+        List<Term> conditions = new ArrayList<>();
+        for (Modifier modifier : getPushableModifiers(modifiers)) {
+            if (!"contains".equals(StringUtils.lowerCase(modifier.getName()))) {
+                continue;
+            }
+            FullTextMatcher matcher = new FullTextMatcher(modifier.getArgument());
+            String property = matcher.getProperty();
+            if (matcher.getTerms().isEmpty() || (property != null && !isSupportedPropertyPath(property))) {
+                continue;
+            }
+            String scope = property == null ? "*" : "[" + property + "]";
+            String variable = bind(bindings, StringUtils.join(matcher.getTerms(), ' '));
+            conditions.add(new Atomic(String.format("CONTAINS(%s.%s, %s)", SELECTOR_NAME, scope, variable)));
+        }
+        return conditions;
+    }
+
+    /**
+     * Each :has() modifier of a single-segment query, which argument can be
+     * translated exactly, is turned into a join with a descendant selector. The
+     * type of the descendant becomes the type of the joined selector. The join
+     * only gets the conditions which can't exclude a matching descendant, see
+     * {@link #isMatchedExactly(SelectorSegment)}.
+     */
+    private List<Join> prepareJoins(List<SelectorSegment> segments, Map<String, String> bindings) {
+        List<Join> joins = new ArrayList<>();
+        if (segments.size() != 1) {
+            return joins;
+        }
+        for (Modifier modifier : getPushableModifiers(segments.get(0).getModifiers())) {
+            if (!"has".equals(StringUtils.lowerCase(modifier.getName()))) {
+                continue;
+            }
+            SelectorSegment joined = prepareJoinedSegment(modifier);
+            if (joined != null) {
+                String selectorName = "h" + (joins.size() + 1);
+                String type = typeResolver.isJcrType(joined.getType()) ? joined.getType() : "nt:base";
+                joins.add(new Join(selectorName, type, prepareExactConditions(joined, selectorName, true,
+                        bindings)));
+            }
+        }
+        return joins;
+    }
+
+    private SelectorSegment prepareJoinedSegment(Modifier modifier) {
+        List<Selector> selectors = SelectorParser.parse(modifier.getArgument());
+        if (selectors.size() != 1) {
             return null;
         }
+        SelectorSegment segment = getSingleSegment(selectors.get(0));
+        if (segment == null || !isExactlyTranslatable(segment)) {
+            return null;
+        }
+        return segment;
+    }
+
+    private static List<Modifier> getPushableModifiers(List<Modifier> modifiers) {
+        List<Modifier> result = new ArrayList<>();
+        if (modifiers == null) {
+            return result;
+        }
+        for (Modifier modifier : modifiers) {
+            if (POSITIONAL_MODIFIERS.contains(StringUtils.lowerCase(modifier.getName()))) {
+                break;
+            }
+            result.add(modifier);
+        }
+        return result;
+    }
+
+    private static SelectorSegment getSingleSegment(Selector selector) {
+        List<SelectorSegment> segments = selector.getSegments();
+        if (segments.size() != 1 || !segments.get(0).getModifiers().isEmpty()) {
+            return null;
+        }
+        return segments.get(0);
+    }
+
+    private boolean isExactlyTranslatable(SelectorSegment segment) {
+        String type = segment.getType();
+        if (StringUtils.contains(type, ':') && !typeResolver.isJcrType(type)) {
+            return false;
+        }
+        for (Attribute a : segment.getAttributes()) {
+            if (!isExactlyTranslatable(a)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resource types are matched in Java through the sling:resourceSuperType
+     * chain, [key] also matches a child resource and Oak converts the operands
+     * of = and != to the property type, while Java compares strings. A segment
+     * using any of them isn't matched by the query exactly.
+     */
+    private boolean isMatchedExactly(SelectorSegment segment) {
+        String type = segment.getType();
+        if (StringUtils.isNotBlank(type) && !typeResolver.isJcrType(type)) {
+            return false;
+        }
+        for (Attribute a : segment.getAttributes()) {
+            if (a.getValue() == null || isTypedComparison(a)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Term prepareExactConditions(SelectorSegment segment, String selectorName, boolean joined,
+            Map<String, String> bindings) {
+        if (!isExactlyTranslatable(segment)) {
+            return null;
+        }
+        List<Term> conditions = new ArrayList<>();
+        String type = segment.getType();
+        if (typeResolver.isJcrType(type)) {
+            if (!joined) {
+                List<Term> typeConditions = new ArrayList<>();
+                String typeVariable = bind(bindings, type);
+                typeConditions.add(new Atomic(String.format("%s.[jcr:primaryType] = %s", selectorName, typeVariable)));
+                typeConditions.add(new Atomic(String.format("%s.[jcr:mixinTypes] = %s", selectorName, typeVariable)));
+                conditions.add(new Formula(Operator.OR, typeConditions));
+            }
+        } else if (StringUtils.isNotBlank(type) && !joined) {
+            conditions.add(
+                    new Atomic(String.format("%s.[sling:resourceType] = %s", selectorName, bind(bindings, type))));
+        }
+        if (StringUtils.isNotBlank(segment.getName())) {
+            conditions.add(
+                    new Atomic(String.format("NAME(%s) = %s", selectorName, bind(bindings, segment.getName()))));
+        }
+        for (Attribute a : segment.getAttributes()) {
+            if (joined && (a.getValue() == null
+                    || JcrOperator.getSelectorOperator(a.getOperator()) == JcrOperator.NOT_EQUAL)) {
+                continue;
+            }
+            conditions.add(new Atomic(getAttributeCondition(selectorName, a, bindings)));
+        }
+        if (conditions.isEmpty()) {
+            return null;
+        } else {
+            return new Formula(Operator.AND, conditions);
+        }
+    }
+
+    private static boolean isNegatable(SelectorSegment segment) {
+        for (Attribute a : segment.getAttributes()) {
+            if (isTypedComparison(a)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTypedComparison(Attribute attribute) {
+        if (attribute.getValue() == null) {
+            return false;
+        }
+        switch (JcrOperator.getSelectorOperator(attribute.getOperator())) {
+        case EQUALS:
+        case NOT_EQUAL:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isExactlyTranslatable(Attribute attribute) {
+        if (!isSupportedPropertyPath(attribute.getKey())) {
+            return false;
+        }
+        switch (JcrOperator.getSelectorOperator(attribute.getOperator())) {
+        case CONTAINS_WORD:
+            return false;
+        case CONTAINS:
+        case STARTS_WITH:
+        case ENDS_WITH:
+            return !StringUtils.containsAny(attribute.getValue(), '%', '_');
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Relative property paths, like {@code jcr:content/sling:resourceType}, are
+     * supported by JCR-SQL2, as long as they point to a descendant node.
+     */
+    private static boolean isSupportedPropertyPath(String key) {
+        if (StringUtils.isBlank(key)) {
+            return false;
+        }
+        for (String element : StringUtils.splitPreserveAllTokens(key, '/')) {
+            if (StringUtils.isBlank(element) || ".".equals(element) || "..".equals(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getAttributeCondition(String selectorName, Attribute attribute,
+            Map<String, String> bindings) {
+        if (!isSupportedPropertyPath(attribute.getKey())) {
+            return null;
+        }
+        if (attribute.getValue() == null) {
+            return String.format("%s.[%s] IS NOT NULL", selectorName, attribute.getKey());
+        }
 
         JcrOperator operator = JcrOperator.getSelectorOperator(attribute.getOperator());
-        String value = StringUtils.replace(attribute.getValue(), "'", "''");
-        return operator.getJcrQueryFragment(attribute.getKey(), value);
+        String variable = bind(bindings, operator.getBoundValue(attribute.getValue()));
+        return operator.getJcrQueryFragment(selectorName, attribute.getKey(), variable);
+    }
+
+    private static String bind(Map<String, String> bindings, String value) {
+        String variable = "value" + (bindings.size() + 1);
+        bindings.put(variable, value);
+        return "$" + variable;
+    }
+
+    private static class Join {
+
+        private final String selectorName;
+
+        private final String type;
+
+        private final Term condition;
+
+        private Join(String selectorName, String type, Term condition) {
+            this.selectorName = selectorName;
+            this.type = type;
+            this.condition = condition;
+        }
     }
 }
@@ -20,6 +20,7 @@
 package org.apache.sling.query.impl.selector;
 
 import org.apache.sling.query.api.SearchStrategy;
+import org.apache.sling.query.api.internal.FullTextMatcher;
 import org.apache.sling.query.api.internal.TreeProvider;
 import org.apache.sling.query.impl.function.EvenFunction;
 import org.apache.sling.query.impl.function.FilterFunction;
@@ -31,77 +32,133 @@ import org.apache.sling.query.impl.predicate.ParentPredicate;
 import org.apache.sling.query.impl.predicate.RejectingPredicate;
 
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 public enum FunctionType {
-    EQ {
+    EQ(true) {
         @Override
         public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
             int index = Integer.parseInt(argument);
             return new SliceFunction<T>(index, index);
         }
     },
-    FIRST {
+    FIRST(true) {
         @Override
         public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
             return new SliceFunction<T>(0, 0);
         }
     },
-    LAST {
+    LAST(true) {
         @Override
         public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
             return new LastFunction<T>();
         }
     },
-    GT {
+    GT(true) {
         @Override
         public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
             return new SliceFunction<T>(Integer.valueOf(argument) + 1);
         }
     },
-    LT {
+    LT(true) {
         @Override
         public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
             return new SliceFunction<T>(0, Integer.valueOf(argument) - 1);
         }
     },
-    HAS {
+    HAS(false) {
         @Override
         public <T> Function<?, ?> getFunction(String selector, SearchStrategy strategy, TreeProvider<T> provider) {
             return new HasFunction<T>(selector, strategy, provider);
         }
+
+        @Override
+        public <T> Predicate<T> getPredicate(String selector, SearchStrategy strategy, TreeProvider<T> provider) {
+            HasFunction<T> function = new HasFunction<T>(selector, strategy, provider);
+            return element -> function.apply(element).hasNext();
+        }
     },
-    PARENT {
+    PARENT(false) {
         @Override
         public <T> Function<?, ?> getFunction(String selector, SearchStrategy strategy,
                 final TreeProvider<T> provider) {
-            return new FilterFunction<T>(new ParentPredicate<T>(provider));
+            return new FilterFunction<T>(getPredicate(selector, strategy, provider));
+        }
+
+        @Override
+        public <T> Predicate<T> getPredicate(String selector, SearchStrategy strategy, TreeProvider<T> provider) {
+            return new ParentPredicate<T>(provider);
         }
     },
-    EMPTY {
+    EMPTY(false) {
         @Override
         public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy,
                 final TreeProvider<T> provider) {
-            return new FilterFunction<T>(new RejectingPredicate<T>(new ParentPredicate<T>(provider)));
+            return new FilterFunction<T>(getPredicate(argument, strategy, provider));
+        }
+
+        @Override
+        public <T> Predicate<T> getPredicate(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
+            return new RejectingPredicate<T>(new ParentPredicate<T>(provider));
         }
     },
-    ODD {
+    ODD(true) {
         @Override
         public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
             return new EvenFunction<T>(false);
         }
     },
-    EVEN {
+    EVEN(true) {
         @Override
         public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
             return new EvenFunction<T>(true);
         }
     },
-    NOT {
+    CONTAINS(false) {
         @Override
         public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
-            return new NotFunction<T>(new SelectorFunction<T>(argument, provider, strategy));
+            return new FilterFunction<T>(getPredicate(argument, strategy, provider));
+        }
+
+        @Override
+        public <T> Predicate<T> getPredicate(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
+            return provider.getFullTextPredicate(new FullTextMatcher(argument));
+        }
+    },
+    NOT(false) {
+        @Override
+        public <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
+            return new NotFunction<T>(new SelectorFunction<T>(argument, provider, strategy), provider.getBudget());
+        }
+
+        @Override
+        public <T> Predicate<T> getPredicate(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
+            SelectorFunction<T> selector = new SelectorFunction<T>(argument, provider, strategy);
+            return selector.isElementLocal() ? new RejectingPredicate<T>(selector) : null;
         }
     };
 
+    private final boolean positional;
+
+    FunctionType(boolean positional) {
+        this.positional = positional;
+    }
+
+    /**
+     * @return true if the result for an element depends on its position in the
+     *         collection, not only on the element itself
+     */
+    public boolean isPositional() {
+        return positional;
+    }
+
+    /**
+     * @return predicate testing a single element or null if the modifier can't
+     *         be evaluated this way
+     */
+    public <T> Predicate<T> getPredicate(String argument, SearchStrategy strategy, TreeProvider<T> provider) {
+        return null;
+    }
+
     public abstract <T> Function<?, ?> getFunction(String argument, SearchStrategy strategy, TreeProvider<T> provider);
 }
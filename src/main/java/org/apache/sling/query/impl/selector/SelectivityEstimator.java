@@ -0,0 +1,112 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.selector;
+
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.query.impl.predicate.SelectorOperator;
+import org.apache.sling.query.impl.selector.parser.Attribute;
+import org.apache.sling.query.impl.selector.parser.Selector;
+import org.apache.sling.query.impl.selector.parser.SelectorParser;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+
+/**
+ * Rough, statistics-free estimate of how selective the selector segments are.
+ * It's used to decide which segment of a hierarchical selector should be
+ * queried, so the other segments can be evaluated by navigating from the
+ * (hopefully few) matches.
+ */
+public final class SelectivityEstimator {
+
+    // the queried segment has to be clearly better than the first one
+    private static final int MIN_GAIN = 30;
+
+    private SelectivityEstimator() {
+    }
+
+    /**
+     * Find the segment, which should be queried instead of the first one. It's
+     * only possible for selectors without modifiers, with segments connected by
+     * the child and descendant operators, as they can be evaluated by navigating
+     * from any of the segments.
+     *
+     * @param selector selector string
+     * @return index of the queried segment, 0 if the first segment should be
+     *         queried as usual
+     */
+    public static int findQueriedSegment(String selector) {
+        List<Selector> selectors = SelectorParser.parse(selector);
+        if (selectors.size() != 1) {
+            return 0;
+        }
+        List<SelectorSegment> segments = selectors.get(0).getSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            SelectorSegment segment = segments.get(i);
+            HierarchyOperator operator = HierarchyOperator.findByCharacter(segment.getHierarchyOperator());
+            if (!segment.getModifiers().isEmpty()) {
+                return 0;
+            }
+            if (i > 0 && operator != HierarchyOperator.CHILD && operator != HierarchyOperator.DESCENDANT) {
+                return 0;
+            }
+        }
+        int best = 0;
+        int bestScore = getScore(segments.isEmpty() ? null : segments.get(0));
+        for (int i = 1; i < segments.size(); i++) {
+            int score = getScore(segments.get(i));
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        if (best > 0 && bestScore - getScore(segments.get(0)) >= MIN_GAIN) {
+            return best;
+        }
+        return 0;
+    }
+
+    /**
+     * @param segment selector segment
+     * @return the higher, the fewer resources are expected to match the segment
+     */
+    static int getScore(SelectorSegment segment) {
+        if (segment == null) {
+            return 0;
+        }
+        int score = 0;
+        if (StringUtils.isNotBlank(segment.getName())) {
+            score += 100;
+        }
+        // resource types aren't queried, as the query can't follow their super types
+        if (StringUtils.contains(segment.getType(), ':')) {
+            score += 5;
+        }
+        for (Attribute a : segment.getAttributes()) {
+            if (a.getValue() == null) {
+                score += 5;
+            } else if (SelectorOperator.getSelectorOperator(a.getOperator()) == SelectorOperator.EQUALS) {
+                score += 30;
+            } else {
+                score += 10;
+            }
+        }
+        return score;
+    }
+}
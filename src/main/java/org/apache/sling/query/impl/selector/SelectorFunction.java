@@ -33,7 +33,10 @@ import org.apache.sling.query.impl.function.CompositeFunction;
 import org.apache.sling.query.impl.function.FilterFunction;
 import org.apache.sling.query.impl.iterator.AlternativeIterator;
 import org.apache.sling.query.impl.iterator.EmptyElementFilter;
+import org.apache.sling.query.impl.iterator.LocalAlternativesIterator;
 import org.apache.sling.query.impl.iterator.SuppIterator;
+import org.apache.sling.query.impl.push.PushFunction;
+import org.apache.sling.query.impl.push.Sink;
 import org.apache.sling.query.impl.selector.parser.Modifier;
 import org.apache.sling.query.impl.selector.parser.Selector;
 import org.apache.sling.query.impl.selector.parser.SelectorParser;
@@ -41,27 +44,68 @@ import org.apache.sling.query.impl.selector.parser.SelectorSegment;
 import org.apache.sling.query.impl.util.IteratorUtils;
 import org.apache.sling.query.impl.util.LazyList;
 
-public class SelectorFunction<T> implements IteratorToIteratorFunction<T>, Predicate<T> {
+public class SelectorFunction<T> implements IteratorToIteratorFunction<T>, Predicate<T>, PushFunction<T> {
 
     private final List<IteratorToIteratorFunction<T>> selectorFunctions;
 
+    // compiled alternatives, null for the ones with hierarchy operators
+    private final List<Predicate<T>> predicates;
+
+    // true if each alternative can be evaluated for a single element
+    private final boolean elementLocal;
+
     private final TreeProvider<T> provider;
 
     private final SearchStrategy strategy;
 
     public SelectorFunction(String selector, TreeProvider<T> provider, SearchStrategy strategy) {
+        this(selector, provider, strategy, false);
+    }
+
+    /**
+     * Create a selector function for the input that has been already pre-filtered
+     * by the FindFunction created for the same selector. With the QUERY strategy,
+     * conditions pushed down into the query don't have to be evaluated again for
+     * the first segment.
+     *
+     * @param selector selector string
+     * @param provider tree provider
+     * @param strategy search strategy
+     * @param prefiltered true if the input comes from the FindFunction for this selector
+     */
+    public SelectorFunction(String selector, TreeProvider<T> provider, SearchStrategy strategy,
+            boolean prefiltered) {
         this.provider = provider;
         this.strategy = strategy;
         List<Selector> selectors = SelectorParser.parse(selector);
+        boolean firstSegmentQueried = prefiltered && strategy == SearchStrategy.QUERY && selectors.size() == 1;
         selectorFunctions = new ArrayList<>();
+        predicates = new ArrayList<>();
+        boolean local = true;
         for (Selector s : selectors) {
-            selectorFunctions.add(createSelectorFunction(s.getSegments()));
+            selectorFunctions.add(createSelectorFunction(s.getSegments(), firstSegmentQueried));
+            local &= isElementLocal(s);
+            predicates.add(local ? compilePredicate(s.getSegments(), firstSegmentQueried) : null);
         }
+        this.elementLocal = local;
+    }
+
+    /**
+     * @return true if the selector doesn't contain positional modifiers, so it
+     *         matches an element regardless of the other elements in the
+     *         collection
+     */
+    public boolean isElementLocal() {
+        return elementLocal;
     }
 
     @Override
     public Iterator<Option<T>> apply(Iterator<Option<T>> input) {
-        LazyList<Option<T>> list = new LazyList<Option<T>>(input);
+        if (elementLocal) {
+            return new LocalAlternativesIterator<T>(input, this::matches, selectorFunctions.size(),
+                    provider.getBudget());
+        }
+        LazyList<Option<T>> list = new LazyList<Option<T>>(input, provider.getBudget());
         List<Iterator<Option<T>>> iterators = new ArrayList<>();
         for (IteratorToIteratorFunction<T> function : selectorFunctions) {
             iterators.add(new SuppIterator<T>(list, function));
@@ -71,25 +115,157 @@ public class SelectorFunction<T> implements IteratorToIteratorFunction<T>, Predi
 
     @Override
     public boolean test(T resource) {
+        if (elementLocal) {
+            for (int i = 0; i < selectorFunctions.size(); i++) {
+                if (matches(resource, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
         Iterator<Option<T>> result = apply(IteratorUtils.singleElementIterator(Option.of(resource, 0)));
         return new EmptyElementFilter<T>(result).hasNext();
     }
 
-    private IteratorToIteratorFunction<T> createSelectorFunction(List<SelectorSegment> segments) {
+    @Override
+    public boolean isPushable() {
+        return elementLocal && selectorFunctions.size() == 1;
+    }
+
+    @Override
+    public Sink<T> push(Sink<T> downstream) {
+        return new Sink<T>() {
+            @Override
+            public boolean accept(T element) {
+                return !test(element) || downstream.accept(element);
+            }
+
+            @Override
+            public void complete() {
+                downstream.complete();
+            }
+        };
+    }
+
+    // stops at the first match, eg. the traversal of the descendants
+    private boolean matches(T element, int alternative) {
+        Predicate<T> predicate = predicates.get(alternative);
+        if (predicate != null) {
+            return predicate.test(element);
+        }
+        Iterator<Option<T>> result = selectorFunctions.get(alternative)
+                .apply(IteratorUtils.singleElementIterator(Option.of(element, 0)));
+        return new EmptyElementFilter<T>(result).hasNext();
+    }
+
+    /**
+     * A descendant segment or the {@code :has()} modifier searches the subtree
+     * of each element matched by the preceding segments, so the number of the
+     * searches depends on the tree rather than on the input collection.
+     *
+     * @param selector selector string
+     * @return true if the selector searches the subtrees of the matched elements
+     */
+    public static boolean searchesSubtrees(String selector) {
+        if (selector == null) {
+            return false;
+        }
+        for (Selector s : SelectorParser.parse(selector)) {
+            for (SelectorSegment segment : s.getSegments()) {
+                if (HierarchyOperator.findByCharacter(segment.getHierarchyOperator()) == HierarchyOperator.DESCENDANT) {
+                    return true;
+                }
+                for (Modifier modifier : segment.getModifiers()) {
+                    FunctionType type = FunctionType.valueOf(modifier.getName().toUpperCase());
+                    if (type == FunctionType.HAS
+                            || (type == FunctionType.NOT && searchesSubtrees(modifier.getArgument()))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Positional modifiers work on the whole collection. With the QUERY strategy
+     * the descendants of a few elements are queried at once, so they shouldn't
+     * be evaluated element by element either.
+     */
+    private boolean isElementLocal(Selector selector) {
+        for (SelectorSegment segment : selector.getSegments()) {
+            HierarchyOperator operator = HierarchyOperator.findByCharacter(segment.getHierarchyOperator());
+            if (strategy == SearchStrategy.QUERY && operator == HierarchyOperator.DESCENDANT) {
+                return false;
+            }
+            for (Modifier modifier : segment.getModifiers()) {
+                FunctionType type = FunctionType.valueOf(modifier.getName().toUpperCase());
+                if (type.isPositional()) {
+                    return false;
+                }
+                if (type == FunctionType.NOT) {
+                    for (Selector negated : SelectorParser.parse(modifier.getArgument())) {
+                        if (!isElementLocal(negated)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An alternative without hierarchy operators and positional modifiers is
+     * compiled into a predicate, running the type, name and attribute checks
+     * directly instead of building the iterators for each tested element.
+     */
+    private Predicate<T> compilePredicate(List<SelectorSegment> segments, boolean queried) {
+        if (segments.size() != 1) {
+            return null;
+        }
+        SelectorSegment segment = segments.get(0);
+        if (HierarchyOperator.findByCharacter(segment.getHierarchyOperator()) != HierarchyOperator.NOOP) {
+            return null;
+        }
+        Predicate<T> predicate = provider.getPredicate(segment.getType(), segment.getName(), segment.getAttributes());
+        for (Modifier modifier : segment.getModifiers()) {
+            if (queried && provider.isPushedDown(segment, modifier)) {
+                continue;
+            }
+            FunctionType type = FunctionType.valueOf(modifier.getName().toUpperCase());
+            Predicate<T> modifierPredicate = type.getPredicate(modifier.getArgument(), strategy, provider);
+            if (modifierPredicate == null) {
+                return null;
+            }
+            predicate = predicate.and(modifierPredicate);
+        }
+        return predicate;
+    }
+
+    private IteratorToIteratorFunction<T> createSelectorFunction(List<SelectorSegment> segments,
+            boolean firstSegmentQueried) {
         List<Function<?, ?>> segmentFunctions = new ArrayList<>();
+        boolean queried = firstSegmentQueried;
         for (SelectorSegment segment : segments) {
-            segmentFunctions.addAll(createSegmentFunction(segment));
+            segmentFunctions.addAll(createSegmentFunction(segment, queried));
+            queried = false;
         }
         return new CompositeFunction<T>(segmentFunctions);
     }
 
-    private List<Function<?, ?>> createSegmentFunction(SelectorSegment segment) {
+    private List<Function<?, ?>> createSegmentFunction(SelectorSegment segment, boolean queried) {
         List<Function<?, ?>> functions = new ArrayList<>();
         HierarchyOperator operator = HierarchyOperator.findByCharacter(segment.getHierarchyOperator());
         functions.add(operator.getFunction(segment, strategy, provider));
         Predicate<T> predicate = provider.getPredicate(segment.getType(), segment.getName(), segment.getAttributes());
         functions.add(new FilterFunction<T>(predicate));
+        boolean evaluatedByQuery = queried
+                || (strategy == SearchStrategy.QUERY && operator == HierarchyOperator.DESCENDANT);
         for (Modifier modifiers : segment.getModifiers()) {
+            if (evaluatedByQuery && provider.isPushedDown(segment, modifiers)) {
+                continue;
+            }
             FunctionType type = FunctionType.valueOf(modifiers.getName().toUpperCase());
             Function<?, ?> f = type.getFunction(modifiers.getArgument(), strategy, provider);
             functions.add(f);
@@ -63,10 +63,11 @@ public class Attribute {
             return false;
         }
         Attribute rhs = (Attribute) obj;
-        return new EqualsBuilder().append(key, rhs.key).append(value, rhs.value).isEquals();
+        return new EqualsBuilder().append(key, rhs.key).append(operator, rhs.operator).append(value, rhs.value)
+                .isEquals();
     }
 
     public int hashCode() {
-        return new HashCodeBuilder().append(key).append(value).toHashCode();
+        return new HashCodeBuilder().append(key).append(operator).append(value).toHashCode();
     }
 }
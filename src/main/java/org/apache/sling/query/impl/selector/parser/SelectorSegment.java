@@ -19,6 +19,7 @@
 
 package org.apache.sling.query.impl.selector.parser;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
@@ -78,6 +79,17 @@ public class SelectorSegment {
         return modifiers;
     }
 
+    /**
+     * @return the same segment without the Sling resource type, node types are
+     *         kept
+     */
+    public SelectorSegment withoutResourceType() {
+        if (StringUtils.isBlank(type) || StringUtils.contains(type, ':')) {
+            return this;
+        }
+        return new SelectorSegment(null, name, attributes, modifiers, hierarchyOperator);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
@@ -90,14 +102,14 @@ public class SelectorSegment {
             return false;
         }
         SelectorSegment rhs = (SelectorSegment) obj;
-        return new EqualsBuilder().append(type, rhs.type).append(attributes, rhs.attributes)
+        return new EqualsBuilder().append(type, rhs.type).append(name, rhs.name).append(attributes, rhs.attributes)
                 .append(modifiers, rhs.modifiers).append(hierarchyOperator, rhs.hierarchyOperator).isEquals();
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder().append(type).append(attributes).append(modifiers).append(hierarchyOperator)
-                .toHashCode();
+        return new HashCodeBuilder().append(type).append(name).append(attributes).append(modifiers)
+                .append(hierarchyOperator).toHashCode();
     }
 
     @Override
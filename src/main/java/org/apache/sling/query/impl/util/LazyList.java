@@ -26,6 +26,8 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
 
+import org.apache.sling.query.api.ExecutionBudget;
+
 public class LazyList<E> implements List<E> {
 
     private final class LazyListIterator implements ListIterator<E> {
@@ -97,9 +99,21 @@ public class LazyList<E> implements List<E> {
 
     private final Iterator<E> iterator;
 
+    private final ExecutionBudget budget;
+
     public LazyList(Iterator<E> iterator) {
+        this(iterator, null);
+    }
+
+    /**
+     * @param iterator source of the elements
+     * @param budget   budget to report the number of the fetched elements to,
+     *                 may be null
+     */
+    public LazyList(Iterator<E> iterator, ExecutionBudget budget) {
         this.arrayList = new ArrayList<E>();
         this.iterator = iterator;
+        this.budget = budget;
     }
 
     private void fillAll() {
@@ -119,6 +133,9 @@ public class LazyList<E> implements List<E> {
         if (iterator.hasNext()) {
             E element = iterator.next();
             arrayList.add(element);
+            if (budget != null) {
+                budget.buffer(arrayList.size());
+            }
             return arrayList.size() - 1;
         }
         return -1;
@@ -0,0 +1,69 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.sling.query.api.internal.TreeCopy;
+
+/**
+ * Elements found in a copy of the tree, read again from the original tree when
+ * the list is accessed for the first time. The elements which can't be read
+ * from the original tree are skipped.
+ */
+public class OriginalElementsList<T> extends AbstractList<T> {
+
+    private final TreeCopy<T> copy;
+
+    private List<T> copiedElements;
+
+    private List<T> elements;
+
+    public OriginalElementsList(List<T> copiedElements, TreeCopy<T> copy) {
+        this.copiedElements = copiedElements;
+        this.copy = copy;
+    }
+
+    @Override
+    public T get(int index) {
+        return getElements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return getElements().size();
+    }
+
+    private synchronized List<T> getElements() {
+        if (elements == null) {
+            elements = new ArrayList<>(copiedElements.size());
+            for (T element : copiedElements) {
+                T original = copy.getOriginal(element);
+                if (original != null) {
+                    elements.add(original);
+                }
+            }
+            copiedElements = null;
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,141 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query;
+
+import static org.apache.sling.query.SlingQuery.$;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.api.AdmissionController;
+import org.apache.sling.query.api.QueryRejectedException;
+import org.apache.sling.query.api.SearchStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdmissionTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    @Test
+    public void testHeavyQuery() {
+        AdmissionController controller = new AdmissionController(1, 0, TimeUnit.SECONDS);
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS);
+        SlingQuery admitted = query.admission(controller);
+        Assert.assertEquals(query.find("cq:Page").asList(), admitted.find("cq:Page").asList());
+        Assert.assertEquals(query.find().count(), admitted.find().count());
+        Assert.assertEquals(query.children().has("cq:PageContent").asList(),
+                admitted.children().has("cq:PageContent").asList());
+        Assert.assertEquals(0, controller.getRunningQueries());
+        Assert.assertEquals(0, controller.getRejectedQueries());
+    }
+
+    @Test
+    public void testRejected() {
+        AdmissionController controller = new AdmissionController(1, 0, TimeUnit.SECONDS);
+        controller.acquire();
+        try {
+            $(tree).searchStrategy(SearchStrategy.BFS).admission(controller).find().asList().size();
+            Assert.fail("Query should be rejected");
+        } catch (QueryRejectedException e) {
+            Assert.assertEquals(1, controller.getRejectedQueries());
+        } finally {
+            controller.release();
+        }
+    }
+
+    @Test
+    public void testSubtreeSelectors() {
+        AdmissionController controller = new AdmissionController(1, 0, TimeUnit.SECONDS);
+        controller.acquire();
+        try {
+            SlingQuery query = $(tree).admission(controller);
+            Assert.assertEquals($(tree).children("cq:Page").asList(), query.children("cq:Page").asList());
+            assertRejected(() -> query.find("cq:Page cq:PageContent").asList());
+            assertRejected(() -> query.children().filter(":has(cq:PageContent)").asList());
+            assertRejected(() -> query.children().not(":not(cq:Page cq:PageContent)").asList());
+        } finally {
+            controller.release();
+        }
+        Assert.assertEquals(3, controller.getRejectedQueries());
+    }
+
+    @Test
+    public void testPartialReadsReleasePermit() {
+        AdmissionController controller = new AdmissionController(1, 0, TimeUnit.SECONDS);
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).admission(controller).find("cq:Page");
+        Assert.assertFalse(query.asList().isEmpty());
+        Assert.assertNotNull(query.asList().get(0));
+        Assert.assertNotNull(query.iterator().next());
+        for (Resource resource : query) {
+            Assert.assertNotNull(resource);
+            break;
+        }
+        Assert.assertTrue(query.stream().findFirst().isPresent());
+        Assert.assertEquals(0, controller.getRunningQueries());
+        Assert.assertEquals(query.asList(), $(tree).searchStrategy(SearchStrategy.DFS).find("cq:Page").asList());
+        Assert.assertEquals(0, controller.getRejectedQueries());
+    }
+
+    @Test
+    public void testCheapQueryBypass() {
+        AdmissionController controller = new AdmissionController(1, 0, TimeUnit.SECONDS);
+        controller.acquire();
+        try {
+            SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS);
+            Assert.assertEquals(query.children().children().asList(),
+                    query.admission(controller).children().children().asList());
+        } finally {
+            controller.release();
+        }
+        Assert.assertEquals(0, controller.getRejectedQueries());
+    }
+
+    @Test
+    public void testWaiting() throws InterruptedException {
+        AdmissionController controller = new AdmissionController(1, 10, TimeUnit.SECONDS);
+        controller.acquire();
+        Thread releasing = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            controller.release();
+        });
+        releasing.start();
+        List<Resource> result = new ArrayList<>();
+        $(tree).searchStrategy(SearchStrategy.DFS).admission(controller).find("cq:Page").forEach(result::add);
+        releasing.join();
+        Assert.assertFalse(result.isEmpty());
+        Assert.assertEquals(0, controller.getRunningQueries());
+    }
+
+    private static void assertRejected(Runnable evaluation) {
+        try {
+            evaluation.run();
+            Assert.fail("Query should be rejected");
+        } catch (QueryRejectedException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query;
+
+import static org.apache.sling.query.SlingQuery.$;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.api.BudgetExceededException;
+import org.apache.sling.query.api.ExecutionBudget;
+import org.apache.sling.query.api.SearchStrategy;
+import org.apache.sling.query.api.internal.FullTextMatcher;
+import org.apache.sling.query.api.internal.TreeCopy;
+import org.apache.sling.query.api.internal.TreeProvider;
+import org.apache.sling.query.impl.selector.parser.Attribute;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    private Executor executor = ForkJoinPool.commonPool();
+
+    @Test
+    public void testAsList() {
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS);
+        CompletableFuture<List<Resource>> pages = query.find("cq:Page").asListAsync(executor);
+        CompletableFuture<List<Resource>> children = query.children().asListAsync(executor);
+        Assert.assertEquals(query.find("cq:Page").asList(), pages.join());
+        Assert.assertEquals(query.children().asList(), children.join());
+    }
+
+    @Test
+    public void testCount() {
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).find();
+        Assert.assertEquals(Long.valueOf(query.count()), query.countAsync(executor).join());
+    }
+
+    @Test
+    public void testTreeCopy() {
+        PathProvider provider = new PathProvider("");
+        PathQuery query = new PathQuery(provider, "/a").find().filter(path -> !path.endsWith("/y"));
+        Assert.assertEquals(Arrays.asList("/a/x", "/a/x/z", "/a/w"), query.asListAsync(executor).join());
+        Assert.assertEquals(Long.valueOf(3), query.countAsync(executor).join());
+        Assert.assertEquals(2, provider.opened.get());
+        Assert.assertEquals(2, provider.closed.get());
+        Assert.assertTrue(provider.copyCalls.get() > 0);
+        Assert.assertEquals(0, provider.calls.get());
+    }
+
+    @Test
+    public void testArgumentsAreNotCopied() {
+        PathProvider provider = new PathProvider("");
+        PathQuery query = new PathQuery(provider, "/a").find().not(Arrays.asList("/a/x/y"));
+        Assert.assertEquals(Arrays.asList("/a/x", "/a/x/z", "/a/w"), query.asListAsync(executor).join());
+        Assert.assertEquals(0, provider.opened.get());
+    }
+
+    @Test
+    public void testException() {
+        ExecutionBudget budget = new ExecutionBudget(1, 0, 0, TimeUnit.SECONDS);
+        CompletableFuture<List<Resource>> future = $(tree).searchStrategy(SearchStrategy.DFS).budget(budget).find()
+                .asListAsync(executor);
+        try {
+            future.join();
+            Assert.fail("Budget should be exceeded");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof BudgetExceededException);
+        }
+    }
+
+    private static class PathQuery extends AbstractQuery<String, PathQuery> {
+
+        private PathQuery(TreeProvider<String> provider, String... paths) {
+            super(provider, paths, SearchStrategy.DFS);
+        }
+
+        private PathQuery(AbstractQuery<String, PathQuery> original, SearchStrategy strategy) {
+            super(original, strategy);
+        }
+
+        private PathQuery(AbstractQuery<String, PathQuery> original, TreeProvider<String> provider) {
+            super(original, provider);
+        }
+
+        @Override
+        protected PathQuery clone(AbstractQuery<String, PathQuery> original, SearchStrategy strategy) {
+            return new PathQuery(original, strategy);
+        }
+
+        @Override
+        PathQuery clone(AbstractQuery<String, PathQuery> original, TreeProvider<String> provider) {
+            return new PathQuery(original, provider);
+        }
+    }
+
+    private static class PathProvider implements TreeProvider<String> {
+
+        private static final List<String> PATHS = Arrays.asList("/a", "/a/x", "/a/x/y", "/a/x/z", "/a/w", "/b");
+
+        private static final String COPY_PREFIX = "copy:";
+
+        private final String prefix;
+
+        private final AtomicInteger opened = new AtomicInteger();
+
+        private final AtomicInteger closed = new AtomicInteger();
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private final AtomicInteger copyCalls = new AtomicInteger();
+
+        private PathProvider(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public TreeCopy<String> openCopy(String element) {
+            opened.incrementAndGet();
+            return new TreeCopy<String>() {
+                @Override
+                public TreeProvider<String> getProvider(TreeProvider<String> provider) {
+                    return new PathProvider(COPY_PREFIX) {
+                        @Override
+                        public Iterator<String> listChildren(String parent) {
+                            copyCalls.incrementAndGet();
+                            return super.listChildren(parent);
+                        }
+                    };
+                }
+
+                @Override
+                public String getElement(String original) {
+                    return COPY_PREFIX + original;
+                }
+
+                @Override
+                public String getOriginal(String element) {
+                    return StringUtils.removeStart(element, COPY_PREFIX);
+                }
+
+                @Override
+                public void close() {
+                    closed.incrementAndGet();
+                }
+            };
+        }
+
+        @Override
+        public Iterator<String> listChildren(String parent) {
+            calls.incrementAndGet();
+            List<String> children = new ArrayList<>();
+            for (String path : PATHS) {
+                if (StringUtils.substringBeforeLast(prefix + path, "/").equals(parent)) {
+                    children.add(prefix + path);
+                }
+            }
+            return children.iterator();
+        }
+
+        @Override
+        public String getParent(String element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getName(String element) {
+            return StringUtils.substringAfterLast(element, "/");
+        }
+
+        @Override
+        public Predicate<String> getPredicate(String type, String name, List<Attribute> attributes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Predicate<String> getFullTextPredicate(FullTextMatcher matcher) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<String> query(List<SelectorSegment> segment, String resource) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean sameElement(String o1, String o2) {
+            return o1.equals(o2);
+        }
+
+        @Override
+        public boolean isDescendant(String root, String testedElement) {
+            return testedElement.startsWith(root + "/");
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query;
+
+import static org.apache.sling.query.SlingQuery.$;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.api.BudgetExceededException;
+import org.apache.sling.query.api.ExecutionBudget;
+import org.apache.sling.query.api.SearchStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BudgetTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    @Test
+    public void testWithinBudget() {
+        ExecutionBudget budget = new ExecutionBudget(1000, 1000, 1, TimeUnit.MINUTES);
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS);
+        Assert.assertEquals(query.find("cq:Page").asList(), query.budget(budget).find("cq:Page").asList());
+        Assert.assertTrue(budget.getVisitedNodes() > 0);
+        Assert.assertTrue(budget.getProviderCalls() > 0);
+    }
+
+    @Test(expected = BudgetExceededException.class)
+    public void testMaxNodes() {
+        ExecutionBudget budget = new ExecutionBudget(5, 0, 0, TimeUnit.SECONDS);
+        $(tree).searchStrategy(SearchStrategy.BFS).budget(budget).find().asList().size();
+    }
+
+    @Test(expected = BudgetExceededException.class)
+    public void testMaxProviderCalls() {
+        ExecutionBudget budget = new ExecutionBudget(0, 3, 0, TimeUnit.SECONDS);
+        $(tree).searchStrategy(SearchStrategy.DFS).budget(budget).find().asList().size();
+    }
+
+    @Test(expected = BudgetExceededException.class)
+    public void testParents() {
+        ExecutionBudget budget = new ExecutionBudget(2, 0, 0, TimeUnit.SECONDS);
+        $(tree.getChild("home/java/labels/jcr:content/par")).budget(budget).parents().asList().size();
+    }
+
+    @Test(expected = BudgetExceededException.class)
+    public void testDeadline() {
+        ExecutionBudget budget = new ExecutionBudget(0, 0, 1, TimeUnit.NANOSECONDS);
+        $(tree).searchStrategy(SearchStrategy.DFS).budget(budget).find().asList().size();
+    }
+
+    @Test
+    public void testCancel() {
+        ExecutionBudget budget = new ExecutionBudget(0, 0, 0, TimeUnit.SECONDS);
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).budget(budget).find();
+        int[] count = new int[1];
+        try {
+            query.forEach(resource -> {
+                if (++count[0] == 3) {
+                    budget.cancel();
+                }
+            });
+            Assert.fail("Query should be cancelled");
+        } catch (BudgetExceededException e) {
+            Assert.assertEquals(3, count[0]);
+        }
+    }
+
+    @Test
+    public void testNoBudget() {
+        ExecutionBudget budget = new ExecutionBudget(1, 0, 0, TimeUnit.SECONDS);
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS);
+        Assert.assertEquals(query.find().asList(), query.budget(budget).budget(null).find().asList());
+        Assert.assertEquals(0, budget.getVisitedNodes());
+    }
+
+    @Test(expected = BudgetExceededException.class)
+    public void testBufferedByUnique() {
+        ExecutionBudget budget = new ExecutionBudget(0, 0, 3, 0, TimeUnit.SECONDS);
+        $(tree).searchStrategy(SearchStrategy.DFS).budget(budget).find().unique().asList().size();
+    }
+
+    @Test(expected = BudgetExceededException.class)
+    public void testBufferedBySelector() {
+        ExecutionBudget budget = new ExecutionBudget(0, 0, 3, 0, TimeUnit.SECONDS);
+        $(tree).searchStrategy(SearchStrategy.DFS).budget(budget).find().filter(":last").asList().size();
+    }
+
+    @Test(expected = BudgetExceededException.class)
+    public void testBufferedByBfs() {
+        ExecutionBudget budget = new ExecutionBudget(0, 0, 2, 0, TimeUnit.SECONDS);
+        $(tree).searchStrategy(SearchStrategy.BFS).budget(budget).find().asList().size();
+    }
+
+    @Test
+    public void testPeakBuffered() {
+        ExecutionBudget budget = new ExecutionBudget(0, 0, 1000, 0, TimeUnit.SECONDS);
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS);
+        int size = query.find().asList().size();
+        Assert.assertEquals(query.find().unique().asList(), query.budget(budget).find().unique().asList());
+        Assert.assertEquals(size, budget.getPeakBufferedElements());
+    }
+}
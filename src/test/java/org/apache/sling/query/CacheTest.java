@@ -0,0 +1,72 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query;
+
+import static org.apache.sling.query.SlingQuery.$;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.api.SearchStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CacheTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    @Test
+    public void testCache() {
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).find("cq:Page");
+        Assert.assertEquals(query.asList(), query.cache().asList());
+    }
+
+    @Test
+    public void testUpstreamEvaluatedOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        SlingQuery cached = $(tree).searchStrategy(SearchStrategy.DFS).find().filter(r -> {
+            calls.incrementAndGet();
+            return true;
+        }).cache();
+        int evaluated = calls.get();
+        Assert.assertTrue(evaluated > 0);
+
+        cached.asList();
+        cached.children().asList();
+        Assert.assertEquals(cached.asList().size(), cached.count());
+        Assert.assertEquals(evaluated, calls.get());
+    }
+
+    @Test
+    public void testDerivedQuery() {
+        SlingQuery query = $(tree).children();
+        SlingQuery cached = query.cache();
+        Assert.assertEquals(query.children().asList(), cached.children().asList());
+        Assert.assertEquals(query.first().asList(), cached.first().asList());
+        Assert.assertEquals(query.last().asList(), cached.last().asList());
+    }
+
+    @Test
+    public void testSearchStrategyKept() {
+        SlingQuery cached = $(tree).searchStrategy(SearchStrategy.DFS).cache();
+        Assert.assertEquals($(tree).searchStrategy(SearchStrategy.DFS).find("cq:Page").asList(),
+                cached.find("cq:Page").asList());
+    }
+}
@@ -0,0 +1,79 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query;
+
+import static org.apache.sling.query.SlingQuery.$;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.api.SearchStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EvaluateAllTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    @Test
+    public void testBranches() {
+        SlingQuery base = $(tree).searchStrategy(SearchStrategy.DFS).find("cq:Page");
+        SlingQuery[] queries = new SlingQuery[] { base, base.children("cq:PageContent"), base.first(),
+                base.last(), base.filter(":first"), base.filter("cq:Page:odd"), base.not("#home"),
+                base.parent().unique(), $(tree).children() };
+        List<List<Resource>> results = SlingQuery.evaluateAll(queries);
+        Assert.assertEquals(queries.length, results.size());
+        for (int i = 0; i < queries.length; i++) {
+            Assert.assertEquals(queries[i].asList(), results.get(i));
+        }
+    }
+
+    @Test
+    public void testSharedPrefixEvaluatedOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        SlingQuery base = $(tree).searchStrategy(SearchStrategy.DFS).find().filter(r -> {
+            calls.incrementAndGet();
+            return true;
+        });
+        int expected = base.asList().size();
+        calls.set(0);
+
+        List<List<Resource>> results = SlingQuery.evaluateAll(base.filter("cq:Page"),
+                base.filter("cq:PageContent"), base.filter(":last"));
+        Assert.assertEquals(expected, calls.get());
+        Assert.assertEquals(base.filter("cq:Page").asList(), results.get(0));
+        Assert.assertEquals(base.filter("cq:PageContent").asList(), results.get(1));
+        Assert.assertEquals(base.filter(":last").asList(), results.get(2));
+    }
+
+    @Test
+    public void testLimitedBranches() {
+        AtomicInteger calls = new AtomicInteger();
+        SlingQuery base = $(tree).searchStrategy(SearchStrategy.DFS).find().filter(r -> {
+            calls.incrementAndGet();
+            return true;
+        });
+        List<List<Resource>> results = SlingQuery.evaluateAll(base.first(), base.slice(1, 2));
+        Assert.assertEquals(3, calls.get());
+        Assert.assertEquals(base.first().asList(), results.get(0));
+        Assert.assertEquals(base.slice(1, 2).asList(), results.get(1));
+    }
+}
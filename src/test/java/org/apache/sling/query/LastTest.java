@@ -24,6 +24,7 @@ import static org.apache.sling.query.TestUtils.assertEmptyIterator;
 import static org.apache.sling.query.TestUtils.assertResourceSetEquals;
 
 import org.apache.sling.api.resource.Resource;
+import org.junit.Assert;
 import org.junit.Test;
 
 public class LastTest {
@@ -49,4 +50,10 @@ public class LastTest {
         SlingQuery query = $(tree.getChild(PAR_PATH)).children().filter("[key=helloWorld]").last();
         assertResourceSetEquals(query.iterator(), "configvalue");
     }
+
+    @Test
+    public void testLastFollowedByEmptyElements() {
+        SlingQuery query = $(tree).children().children("cq:Undefined, cq:PageContent").last();
+        Assert.assertEquals(1, query.asList().size());
+    }
 }
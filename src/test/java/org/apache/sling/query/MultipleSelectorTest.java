@@ -43,4 +43,19 @@ public class MultipleSelectorTest {
         query = $(tree).children("#application, :not(#application)");
         assertResourceSetEquals(query.iterator(), "jcr:content", "application", "home");
     }
+
+    @Test
+    public void testNotWithAlternatives() {
+        SlingQuery query = $(tree).children().not("#application, #home");
+        assertResourceSetEquals(query.iterator(), "jcr:content");
+
+        query = $(tree).children(":not(#application, cq:PageContent)");
+        assertResourceSetEquals(query.iterator(), "home");
+    }
+
+    @Test
+    public void testAlternativesWithPositionalModifier() {
+        SlingQuery query = $(tree).children("#home, cq:Page:first");
+        assertResourceSetEquals(query.iterator(), "application", "home");
+    }
 }
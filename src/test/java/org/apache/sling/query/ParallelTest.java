@@ -0,0 +1,82 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query;
+
+import static org.apache.sling.query.SlingQuery.$;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.api.SearchStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    private Executor executor = ForkJoinPool.commonPool();
+
+    @Test
+    public void testHas() {
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).find("cq:Page");
+        Assert.assertEquals(query.has("cq:PageContent").asList(),
+                query.parallel(executor, 3).has("cq:PageContent").asList());
+        Assert.assertEquals(query.has("cq:PageContent").first().asList(),
+                query.parallel(executor, 3).has("cq:PageContent").first().asList());
+    }
+
+    @Test
+    public void testClosest() {
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).find("nt:unstructured");
+        Assert.assertEquals(query.closest("cq:Page").asList(),
+                query.parallel(executor, 2).closest("cq:Page").asList());
+        Assert.assertEquals(query.closest("cq:Page").last().asList(),
+                query.parallel(executor, 2).closest("cq:Page").last().asList());
+    }
+
+    @Test
+    public void testSelectorWithHas() {
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).find("cq:Page");
+        Assert.assertEquals(query.children(":has(cq:PageContent):first").asList(),
+                query.parallel(executor, 4).children().has("cq:PageContent").first().asList());
+    }
+
+    @Test
+    public void testMap() {
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).find();
+        List<Object> expected = new ArrayList<>();
+        query.map(Map.class).forEach(expected::add);
+        List<Object> actual = new ArrayList<>();
+        query.parallel(executor, 8).map(Map.class).forEach(actual::add);
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testSequential() {
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).children();
+        Assert.assertEquals(query.has("cq:PageContent").asList(),
+                query.parallel(null, 4).has("cq:PageContent").asList());
+    }
+}
@@ -0,0 +1,76 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query;
+
+import static org.apache.sling.query.SlingQuery.$;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.api.SearchStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PushTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    @Test
+    public void testSameAsIterator() {
+        SlingQuery dfs = $(tree).searchStrategy(SearchStrategy.DFS);
+        assertSameAsIterator(dfs.find());
+        assertSameAsIterator(dfs.find().filter(r -> r.getName().startsWith("c")).slice(2, 5));
+        assertSameAsIterator(dfs.find("cq:Page").children().parent().unique());
+        assertSameAsIterator(dfs.find("cq:PageContent").parents().last());
+        assertSameAsIterator(dfs.find("cq:PageContent").last());
+        assertSameAsIterator(dfs.children().siblings().add(tree).slice(1));
+        assertSameAsIterator(dfs.find("cq:Page").children("cq:PageContent").first());
+        assertSameAsIterator(dfs.children().closest("cq:Page").nextAll().prev());
+    }
+
+    @Test
+    public void testStop() {
+        List<Resource> pushed = new ArrayList<>();
+        $(tree).searchStrategy(SearchStrategy.DFS).find().forEachWhile(r -> {
+            pushed.add(r);
+            return pushed.size() < 3;
+        });
+        Assert.assertEquals(3, pushed.size());
+    }
+
+    @Test
+    public void testEmpty() {
+        List<Resource> pushed = new ArrayList<>();
+        $(tree).children("cq:Undefined").last().forEach(pushed::add);
+        Assert.assertTrue(pushed.isEmpty());
+    }
+
+    private static void assertSameAsIterator(SlingQuery query) {
+        List<String> pulled = new ArrayList<>();
+        for (Resource resource : query.asList()) {
+            pulled.add(resource.getPath());
+        }
+        List<String> pushed = new ArrayList<>();
+        query.forEach(r -> pushed.add(r.getPath()));
+        Assert.assertFalse(pulled.isEmpty());
+        Assert.assertEquals(pulled, pushed);
+    }
+}
@@ -0,0 +1,80 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.function;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.TestUtils;
+import org.apache.sling.query.api.SearchStrategy;
+import org.apache.sling.query.impl.resource.ResourceTreeProvider;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FindCountTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    private CountingProvider provider = new CountingProvider();
+
+    @Test
+    public void testCountByQuery() {
+        FindFunction<Resource> function = new FindFunction<>(SearchStrategy.QUERY, provider, "cq:Page");
+        Assert.assertEquals(14, function.count(Arrays.asList(tree, tree)));
+    }
+
+    @Test
+    public void testHierarchicalSelector() {
+        FindFunction<Resource> function = new FindFunction<>(SearchStrategy.QUERY, provider, "cq:Page > cq:PageContent");
+        Assert.assertEquals(-1, function.count(Arrays.asList(tree)));
+    }
+
+    @Test
+    public void testInexactQuery() {
+        FindFunction<Resource> function = new FindFunction<>(SearchStrategy.QUERY, provider, "cq:Page:first");
+        Assert.assertEquals(-1, function.count(Arrays.asList(tree)));
+    }
+
+    @Test
+    public void testTraversal() {
+        FindFunction<Resource> function = new FindFunction<>(SearchStrategy.DFS, provider, "cq:Page");
+        Assert.assertEquals(-1, function.count(Arrays.asList(tree)));
+    }
+
+    private static class CountingProvider extends ResourceTreeProvider {
+
+        private CountingProvider() {
+            super(null);
+        }
+
+        @Override
+        public long count(List<SelectorSegment> segments, Resource root) {
+            return segments.get(0).getModifiers().isEmpty() ? 7 : -1;
+        }
+
+        @Override
+        public Iterator<Resource> query(List<SelectorSegment> segments, Resource root) {
+            throw new AssertionError("The query result shouldn't be iterated");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.function;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.TestUtils;
+import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.impl.iterator.OptionDecoratingIterator;
+import org.apache.sling.query.impl.resource.ResourceTreeProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FusedFunctionTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    private ResourceTreeProvider provider = new ResourceTreeProvider(null);
+
+    @Test
+    public void testExpandAndFilter() {
+        assertSameAsUnfused(new ChildrenFunction<>(provider),
+                new FilterFunction<Resource>(r -> r.getName().startsWith("j")), new ChildrenFunction<>(provider));
+    }
+
+    @Test
+    public void testSlices() {
+        assertSameAsUnfused(new ChildrenFunction<>(provider), new ChildrenFunction<>(provider),
+                new SliceFunction<Resource>(1, 3), new ChildrenFunction<>(provider));
+        assertSameAsUnfused(new ParentsFunction<>(r -> false, provider), new SliceFunction<Resource>(2));
+    }
+
+    @Test
+    public void testCompositeFunction() {
+        List<Function<?, ?>> functions = Arrays.asList(new ChildrenFunction<>(provider),
+                new IdentityFunction<Resource>(), new FilterFunction<Resource>(r -> true), new LastFunction<Resource>(),
+                new ChildrenFunction<>(provider));
+        Assert.assertEquals(describe(unfused(functions)),
+                describe(new CompositeFunction<Resource>(functions).apply(input())));
+    }
+
+    private void assertSameAsUnfused(Function<?, ?>... functions) {
+        List<Function<?, ?>> list = Arrays.asList(functions);
+        List<String> expected = describe(unfused(list));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, describe(new FusedFunction<Resource>(list).apply(input())));
+    }
+
+    private Iterator<Option<Resource>> unfused(List<Function<?, ?>> functions) {
+        Iterator<Option<Resource>> iterator = input();
+        for (Function<?, ?> f : functions) {
+            iterator = new IteratorToIteratorFunctionWrapper<Resource>(f).apply(iterator);
+        }
+        return iterator;
+    }
+
+    private Iterator<Option<Resource>> input() {
+        List<Resource> input = Arrays.asList(tree, tree.getChild("home"), null, tree.getChild("application"));
+        return new OptionDecoratingIterator<>(input.iterator());
+    }
+
+    private static List<String> describe(Iterator<Option<Resource>> iterator) {
+        List<String> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Option<Resource> option = iterator.next();
+            result.add(option.getArgumentId() + ":" + (option.isEmpty() ? null : option.getElement().getPath()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,148 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.function;
+
+import static org.apache.sling.query.SlingQuery.$;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.TestUtils;
+import org.apache.sling.query.api.SearchStrategy;
+import org.apache.sling.query.impl.iterator.tree.DfsTreeIterator;
+import org.apache.sling.query.impl.resource.ResourceTreeProvider;
+import org.apache.sling.query.impl.selector.SelectivityEstimator;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+import org.apache.sling.query.mock.PropertyResourceMock;
+import org.apache.sling.query.mock.ResourceMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HybridFindTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    @Test
+    public void testChild() {
+        assertMatches("cq:PageContent > foundation/components/parsys", 0);
+        assertMatches("cq:Page > cq:PageContent > foundation/components/parsys > demo/core/components/email#email", 3);
+    }
+
+    @Test
+    public void testDescendant() {
+        assertMatches("cq:Page demo/core/components/configValue", 0);
+        assertMatches("cq:Page foundation/components/parsys > demo/core/components/navigation", 0);
+        assertMatches("cq:Page foundation/components/parsys > #navigation", 2);
+    }
+
+    @Test
+    public void testQueriedSegmentInTheMiddle() {
+        assertMatches("cq:Page > cq:PageContent[sling:resourceType=demo/core/renderers/basicRenderer] nt:unstructured",
+                1);
+    }
+
+    @Test
+    public void testNoMatches() {
+        Assert.assertEquals(0, assertSameAsFind("cq:Page > demo/core/components/configValue#configvalue", 1));
+    }
+
+    @Test
+    public void testInheritedResourceType() {
+        ResourceMock content = new ResourceMock(null, "content");
+        ResourceMock page = new ResourceMock(content, "page");
+        page.addChild(new PropertyResourceMock(page, "jcr:primaryType", "cq:Page"));
+        content.addChild(page);
+        ResourceMock text = new ResourceMock(page, "text");
+        text.addChild(new PropertyResourceMock(text, "sling:resourceType", "demo/custom/text"));
+        text.addChild(new PropertyResourceMock(text, "sling:resourceSuperType", "demo/core/text"));
+        page.addChild(text);
+
+        Assert.assertEquals(1, assertSameAsFind(content, "cq:Page > demo/core/text#text", 1));
+        Assert.assertEquals(1, assertSameAsFind(content, "cq:Page demo/core/text", 0));
+    }
+
+    @Test
+    public void testQueriedSegmentSelection() {
+        Assert.assertEquals(0, SelectivityEstimator.findQueriedSegment("cq:Page"));
+        Assert.assertEquals(0, SelectivityEstimator.findQueriedSegment("demo/core/page > cq:PageContent"));
+        Assert.assertEquals(0, SelectivityEstimator.findQueriedSegment("cq:Page > demo/core/text:first"));
+        Assert.assertEquals(0, SelectivityEstimator.findQueriedSegment("cq:Page + demo/core/text"));
+        Assert.assertEquals(0, SelectivityEstimator.findQueriedSegment("cq:Page > demo/core/text, cq:Page"));
+        Assert.assertEquals(0, SelectivityEstimator.findQueriedSegment("cq:Page > cq:PageContent demo/core/text"));
+        Assert.assertEquals(2, SelectivityEstimator.findQueriedSegment("cq:Page > cq:PageContent demo/core/text#t"));
+        Assert.assertEquals(1, SelectivityEstimator.findQueriedSegment("cq:Page #home > cq:PageContent"));
+    }
+
+    private void assertMatches(String selector, int queriedSegment) {
+        Assert.assertTrue(assertSameAsFind(selector, queriedSegment) > 0);
+    }
+
+    private int assertSameAsFind(String selector, int queriedSegment) {
+        return assertSameAsFind(tree, selector, queriedSegment);
+    }
+
+    private static int assertSameAsFind(Resource tree, String selector, int queriedSegment) {
+        Assert.assertEquals(queriedSegment, SelectivityEstimator.findQueriedSegment(selector));
+        List<String> expected = paths($(tree).searchStrategy(SearchStrategy.DFS).find(selector).iterator());
+        HybridFindFunction<Resource> function = new HybridFindFunction<>(new TraversingProvider(), selector,
+                queriedSegment);
+        List<String> actual = paths(function.apply(tree));
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertTrue(actual.containsAll(expected));
+        return actual.size();
+    }
+
+    private static List<String> paths(Iterator<Resource> iterator) {
+        List<String> paths = new ArrayList<>();
+        while (iterator.hasNext()) {
+            paths.add(iterator.next().getPath());
+        }
+        return paths;
+    }
+
+    private static class TraversingProvider extends ResourceTreeProvider {
+
+        private TraversingProvider() {
+            super(null);
+        }
+
+        // like JCR-SQL2, the resource type is compared without its super types
+        @Override
+        public Iterator<Resource> query(List<SelectorSegment> segments, Resource root) {
+            SelectorSegment segment = segments.get(0);
+            Predicate<Resource> predicate = getPredicate(segment.getType(), segment.getName(),
+                    segment.getAttributes());
+            if (segment.withoutResourceType() != segment) {
+                predicate = predicate.and(r -> segment.getType().equals(r.getResourceType()));
+            }
+            List<Resource> result = new ArrayList<>();
+            Iterator<Resource> iterator = new DfsTreeIterator<>(root, this);
+            while (iterator.hasNext()) {
+                Resource resource = iterator.next();
+                if (predicate.test(resource)) {
+                    result.add(resource);
+                }
+            }
+            return result.iterator();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.function;
+
+import static org.apache.sling.query.TestUtils.l;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.query.TestUtils;
+import org.apache.sling.query.api.internal.FullTextMatcher;
+import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.api.internal.TreeCopy;
+import org.apache.sling.query.api.internal.TreeProvider;
+import org.apache.sling.query.impl.selector.parser.Attribute;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelFunctionTest {
+
+    private static final String COPY_PREFIX = "copy:";
+
+    @Test
+    public void testEachElementUsesItsCopy() {
+        Set<String> tested = ConcurrentHashMap.newKeySet();
+        Predicate<String> predicate = path -> {
+            tested.add(path);
+            return path.endsWith("/page");
+        };
+        PathProvider provider = new PathProvider(true);
+        ParallelFunction<String> function = new ParallelFunction<>(p -> new ClosestFunction<>(predicate, p),
+                provider, ForkJoinPool.commonPool(), 3);
+        List<String> input = l("/page/a/b", "/x/y", "/page", null, "/page/c");
+        Assert.assertEquals(l("0:/page", "1:null", "2:/page", "3:null", "4:/page"),
+                describe(function.apply(TestUtils.optionList(input).iterator())));
+
+        Assert.assertTrue(provider.maxOpen.get() <= 3);
+        Assert.assertEquals(provider.opened.get(), provider.closed.get());
+        for (String path : tested) {
+            Assert.assertTrue(path.startsWith(COPY_PREFIX));
+        }
+    }
+
+    @Test
+    public void testWithoutCopies() {
+        PathProvider provider = new PathProvider(false);
+        ParallelFunction<String> function = new ParallelFunction<>(
+                p -> new ClosestFunction<>(path -> path.endsWith("/page"), p), provider, ForkJoinPool.commonPool(),
+                3);
+        Assert.assertEquals(l("0:/page", "1:null"),
+                describe(function.apply(TestUtils.optionList(l("/page/a", "/x")).iterator())));
+        Assert.assertEquals(0, provider.opened.get());
+    }
+
+    @Test
+    public void testCopiesAreReused() {
+        PathProvider provider = new PathProvider(true);
+        ParallelFunction<String> function = new ParallelFunction<>(p -> new ClosestFunction<>(path -> {
+            sleep(5);
+            return path.endsWith("/page");
+        }, p), provider, ForkJoinPool.commonPool(), 2);
+        List<String> input = new ArrayList<>(Collections.nCopies(20, "/page/a"));
+        Assert.assertEquals(20, describe(function.apply(TestUtils.optionList(input).iterator())).size());
+
+        Assert.assertTrue(provider.maxOpen.get() <= 2);
+        Assert.assertTrue(provider.opened.get() < 10);
+        Assert.assertEquals(provider.opened.get(), provider.closed.get());
+    }
+
+    @Test
+    public void testAbandonedReadClosesCopies() throws InterruptedException {
+        PathProvider provider = new PathProvider(true);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        ParallelFunction<String> function = new ParallelFunction<>(p -> new ClosestFunction<>(path -> {
+            sleep(5);
+            return path.endsWith("/page");
+        }, p), provider, executor, 3);
+        List<String> input = new ArrayList<>(Collections.nCopies(10, "/page/a"));
+        Iterator<Option<String>> iterator = function.apply(TestUtils.optionList(input).iterator());
+        iterator.next();
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertTrue(provider.opened.get() > 0);
+        Assert.assertEquals(provider.opened.get(), provider.closed.get());
+    }
+
+    @Test
+    public void testRejectedElementsAreProcessedWithCopies() {
+        PathProvider provider = new PathProvider(true);
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException();
+        };
+        ParallelFunction<String> function = new ParallelFunction<>(
+                p -> new ClosestFunction<>(path -> path.endsWith("/page"), p), provider, rejecting, 3);
+        Assert.assertEquals(l("0:/page", "1:null", "2:/page"),
+                describe(function.apply(TestUtils.optionList(l("/page/a", "/x", "/page")).iterator())));
+        Assert.assertTrue(provider.opened.get() > 0);
+        Assert.assertEquals(provider.opened.get(), provider.closed.get());
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<String> describe(Iterator<Option<String>> iterator) {
+        List<String> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Option<String> option = iterator.next();
+            result.add(option.getArgumentId() + ":" + option.getElement());
+        }
+        return result;
+    }
+
+    private static class PathProvider implements TreeProvider<String> {
+
+        private final boolean copyable;
+
+        private final AtomicInteger opened = new AtomicInteger();
+
+        private final AtomicInteger closed = new AtomicInteger();
+
+        private final AtomicInteger open = new AtomicInteger();
+
+        private final AtomicInteger maxOpen = new AtomicInteger();
+
+        private PathProvider(boolean copyable) {
+            this.copyable = copyable;
+        }
+
+        @Override
+        public TreeCopy<String> openCopy(String element) {
+            if (!copyable) {
+                return null;
+            }
+            opened.incrementAndGet();
+            maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+            PathProvider copyProvider = new PathProvider(false);
+            return new TreeCopy<String>() {
+                @Override
+                public TreeProvider<String> getProvider(TreeProvider<String> provider) {
+                    return copyProvider;
+                }
+
+                @Override
+                public String getElement(String original) {
+                    return COPY_PREFIX + original;
+                }
+
+                @Override
+                public String getOriginal(String element) {
+                    return StringUtils.removeStart(element, COPY_PREFIX);
+                }
+
+                @Override
+                public void close() {
+                    open.decrementAndGet();
+                    closed.incrementAndGet();
+                }
+            };
+        }
+
+        @Override
+        public String getParent(String element) {
+            String parent = StringUtils.substringBeforeLast(element, "/");
+            return parent.isEmpty() || parent.equals(COPY_PREFIX) ? null : parent;
+        }
+
+        @Override
+        public boolean sameElement(String o1, String o2) {
+            return o1.equals(o2);
+        }
+
+        @Override
+        public boolean isDescendant(String root, String testedElement) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<String> listChildren(String parent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getName(String element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Predicate<String> getPredicate(String type, String name, List<Attribute> attributes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Predicate<String> getFullTextPredicate(FullTextMatcher matcher) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<String> query(List<SelectorSegment> segment, String root) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
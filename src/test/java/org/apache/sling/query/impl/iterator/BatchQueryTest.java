@@ -0,0 +1,187 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.iterator;
+
+import static org.apache.sling.query.TestUtils.l;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.apache.sling.query.TestUtils;
+import org.apache.sling.query.api.BudgetExceededException;
+import org.apache.sling.query.api.ExecutionBudget;
+import org.apache.sling.query.api.internal.FullTextMatcher;
+import org.apache.sling.query.api.internal.Option;
+import org.apache.sling.query.api.internal.TreeProvider;
+import org.apache.sling.query.impl.selector.parser.Attribute;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchQueryTest {
+
+    private static final List<String> PATHS = l("/a", "/a/x", "/a/x/y", "/ab", "/ab/z", "/b/q", "/c");
+
+    @Test
+    public void testSameAsSeparateQueries() {
+        List<String> input = l("/a", "/b", "/c", "/ab", "/a/x");
+        for (int batchSize = 1; batchSize <= 6; batchSize++) {
+            PathProvider provider = new PathProvider();
+            List<String> expected = describe(
+                    new ExpandingIterator<String>(root -> provider.query(null, root), options(input)));
+            Assert.assertEquals(expected,
+                    describe(new BatchQueryIterator<>(options(input), provider, null, batchSize)));
+        }
+    }
+
+    @Test
+    public void testArgumentIds() {
+        PathProvider provider = new PathProvider();
+        Iterator<Option<String>> output = new BatchQueryIterator<>(options(l("/a", null, "/c", "/a/x")), provider,
+                null, 10);
+        Assert.assertEquals(l("0:/a/x", "0:/a/x/y", "1:null", "2:null", "3:/a/x/y"), describe(output));
+        // /a/x is contained in /a, so only two roots are queried
+        Assert.assertEquals(Arrays.asList(l("/a", "/c")), provider.queriedRoots);
+    }
+
+    @Test
+    public void testBatches() {
+        PathProvider provider = new PathProvider();
+        TestUtils.iteratorToList(new BatchQueryIterator<>(options(l("/a", "/b", "/c", "/ab", "/a/x")), provider,
+                null, 2));
+        // the last batch has a single root, so it's queried on its own
+        Assert.assertEquals(Arrays.asList(l("/a", "/b"), l("/c", "/ab")), provider.queriedRoots);
+    }
+
+    @Test
+    public void testFirstRootIsStreamed() {
+        PathProvider provider = new PathProvider();
+        Iterator<Option<String>> output = new BatchQueryIterator<>(options(l("/a", "/c")), provider, null, 10);
+        Assert.assertEquals("/a/x", output.next().getElement());
+        Assert.assertEquals(1, provider.rowsRead);
+    }
+
+    @Test
+    public void testFirstRootIsNotBuffered() {
+        PathProvider provider = new PathProvider();
+        provider.budget = new ExecutionBudget(0, 0, 1, 0, TimeUnit.MILLISECONDS);
+        TestUtils.iteratorToList(new BatchQueryIterator<>(options(l("/a", "/c")), provider, null, 10));
+        Assert.assertEquals(0, provider.budget.getPeakBufferedElements());
+    }
+
+    @Test(expected = BudgetExceededException.class)
+    public void testBufferIsReported() {
+        PathProvider provider = new PathProvider();
+        provider.budget = new ExecutionBudget(0, 0, 1, 0, TimeUnit.MILLISECONDS);
+        TestUtils.iteratorToList(new BatchQueryIterator<>(options(l("/c", "/a")), provider, null, 10));
+    }
+
+    private static List<String> describe(Iterator<Option<String>> iterator) {
+        List<String> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Option<String> option = iterator.next();
+            result.add(option.getArgumentId() + ":" + option.getElement());
+        }
+        return result;
+    }
+
+    private static Iterator<Option<String>> options(List<String> input) {
+        return TestUtils.optionList(input).iterator();
+    }
+
+    private static class PathProvider implements TreeProvider<String> {
+
+        private final List<List<String>> queriedRoots = new ArrayList<>();
+
+        private ExecutionBudget budget;
+
+        private int rowsRead;
+
+        @Override
+        public Iterator<String> query(List<SelectorSegment> segment, String root) {
+            List<String> result = new ArrayList<>();
+            for (String path : PATHS) {
+                if (isDescendant(root, path) && !root.equals(path)) {
+                    result.add(path);
+                }
+            }
+            Iterator<String> iterator = result.iterator();
+            return new AbstractIterator<String>() {
+                @Override
+                protected String getElement() {
+                    if (!iterator.hasNext()) {
+                        return null;
+                    }
+                    rowsRead++;
+                    return iterator.next();
+                }
+            };
+        }
+
+        @Override
+        public ExecutionBudget getBudget() {
+            return budget;
+        }
+
+        @Override
+        public Iterator<String> query(List<SelectorSegment> segment, List<String> roots) {
+            queriedRoots.add(roots);
+            return TreeProvider.super.query(segment, roots);
+        }
+
+        @Override
+        public boolean isDescendant(String root, String testedElement) {
+            return testedElement.equals(root) || testedElement.startsWith(root + "/");
+        }
+
+        @Override
+        public boolean sameElement(String o1, String o2) {
+            return o1.equals(o2);
+        }
+
+        @Override
+        public Iterator<String> listChildren(String parent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getParent(String element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getName(String element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Predicate<String> getPredicate(String type, String name, List<Attribute> attributes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Predicate<String> getFullTextPredicate(FullTextMatcher matcher) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.iterator;
+
+import static org.apache.sling.query.TestUtils.l;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import org.apache.sling.query.api.internal.Option;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LocalAlternativesTest {
+
+    // alternative 0 matches "a", alternative 1 matches "b", alternative 2 matches both
+    private static final BiPredicate<String, Integer> MATCHER = (element, alternative) -> alternative == 2
+            || element.equals(alternative == 0 ? "a" : "b");
+
+    @Test
+    public void testAlternatives() {
+        Iterator<Option<String>> iterator = new LocalAlternativesIterator<>(options("a", "b", null, "a"), MATCHER, 3);
+        Assert.assertEquals(l("0:a", "1:-", "2:-", "3:a", "0:-", "1:b", "2:-", "3:-", "0:a", "1:b", "2:-", "3:a"),
+                describe(iterator));
+    }
+
+    @Test
+    public void testSinglePass() {
+        List<String> tested = new ArrayList<>();
+        Iterator<Option<String>> iterator = new LocalAlternativesIterator<>(options("a", "b"), (e, a) -> {
+            tested.add(e + a);
+            return true;
+        }, 2);
+        Assert.assertTrue(iterator.hasNext());
+        iterator.next();
+        Assert.assertEquals(l("a0", "a1"), tested);
+        describe(iterator);
+        Assert.assertEquals(l("a0", "a1", "b0", "b1"), tested);
+    }
+
+    @Test
+    public void testEmptyInput() {
+        Assert.assertTrue(describe(new LocalAlternativesIterator<>(options(), MATCHER, 2)).isEmpty());
+    }
+
+    private static Iterator<Option<String>> options(String... elements) {
+        List<Option<String>> options = new ArrayList<>();
+        for (int i = 0; i < elements.length; i++) {
+            options.add(Option.of(elements[i], i));
+        }
+        return options.iterator();
+    }
+
+    private static List<String> describe(Iterator<Option<String>> iterator) {
+        List<String> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Option<String> option = iterator.next();
+            result.add(option.getArgumentId() + ":" + (option.isEmpty() ? "-" : option.getElement()));
+        }
+        return result;
+    }
+}
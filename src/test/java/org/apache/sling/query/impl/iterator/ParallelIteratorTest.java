@@ -0,0 +1,79 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.iterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelIteratorTest {
+
+    private Executor executor = ForkJoinPool.commonPool();
+
+    @Test
+    public void testOrderAndNulls() throws InterruptedException {
+        List<Integer> input = Arrays.asList(5, 1, 4, 2, 3, 0);
+        ParallelIterator<Integer, Integer> iterator = new ParallelIterator<>(input.iterator(), i -> {
+            sleep(i * 10);
+            return i % 2 == 0 ? i : null;
+        }, executor, 3);
+        List<Integer> result = new ArrayList<>();
+        iterator.forEachRemaining(result::add);
+        Assert.assertEquals(Arrays.asList(4, 2, 0), result);
+    }
+
+    @Test
+    public void testMaxInFlight() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        ParallelIterator<Integer, Integer> iterator = new ParallelIterator<>(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8)
+                .iterator(), i -> {
+                    max.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(10);
+                    running.decrementAndGet();
+                    return i;
+                }, executor, 2);
+        List<Integer> result = new ArrayList<>();
+        iterator.forEachRemaining(result::add);
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8), result);
+        Assert.assertTrue(max.get() <= 2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testException() {
+        new ParallelIterator<Integer, Integer>(Arrays.asList(1, 2).iterator(), i -> {
+            throw new IllegalStateException();
+        }, executor, 2).next();
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
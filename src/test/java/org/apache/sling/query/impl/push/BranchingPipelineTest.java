@@ -0,0 +1,72 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.push;
+
+import static org.apache.sling.query.TestUtils.l;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.sling.query.api.ExecutionBudget;
+import org.apache.sling.query.api.internal.IteratorToIteratorFunction;
+import org.apache.sling.query.impl.function.FilterFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BranchingPipelineTest {
+
+    private static final List<String> INPUT = l("a", "b", "ab", "c", "ac");
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    public void testBufferedBranch() {
+        ExecutionBudget budget = new ExecutionBudget(0, 0, 0, 0, TimeUnit.SECONDS);
+        List<List<String>> results = createPipeline(budget, 10).run(INPUT);
+        Assert.assertEquals(Arrays.asList(INPUT, l("a", "ab", "ac")), results);
+        Assert.assertEquals(INPUT.size(), calls.get());
+        Assert.assertEquals(INPUT.size(), budget.getPeakBufferedElements());
+    }
+
+    @Test
+    public void testBufferOverflow() {
+        ExecutionBudget budget = new ExecutionBudget(0, 0, 0, 0, TimeUnit.SECONDS);
+        List<List<String>> results = createPipeline(budget, 2).run(INPUT);
+        Assert.assertEquals(Arrays.asList(INPUT, l("a", "ab", "ac")), results);
+        // the prefix is evaluated again for the branch which couldn't be buffered
+        Assert.assertEquals(INPUT.size() * 2, calls.get());
+        Assert.assertEquals(2, budget.getPeakBufferedElements());
+    }
+
+    private BranchingPipeline<String> createPipeline(ExecutionBudget budget, int maxBuffered) {
+        List<Function<?, ?>> prefix = Arrays.<Function<?, ?>>asList(new FilterFunction<String>(s -> {
+            calls.incrementAndGet();
+            return true;
+        }));
+        // needs the whole stream, so it can't be pushed
+        IteratorToIteratorFunction<String> pulled = input -> input;
+        List<List<Function<?, ?>>> branches = Arrays.asList(Arrays.<Function<?, ?>>asList(pulled),
+                Arrays.<Function<?, ?>>asList(new FilterFunction<String>(s -> s.startsWith("a"))));
+        return new BranchingPipeline<>(prefix, branches, budget, maxBuffered);
+    }
+}
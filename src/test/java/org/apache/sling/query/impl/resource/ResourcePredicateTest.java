@@ -0,0 +1,63 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.resource;
+
+import java.util.Collections;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.TestUtils;
+import org.apache.sling.query.impl.selector.parser.Attribute;
+import org.apache.sling.query.mock.MockTypeResolver;
+import org.apache.sling.query.mock.PropertyResourceMock;
+import org.apache.sling.query.mock.ResourceMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResourcePredicateTest {
+
+    private Resource tree = TestUtils.getTree();
+
+    @Test
+    public void testPrimaryType() {
+        Assert.assertTrue(predicate("cq:Page").test(tree));
+        Assert.assertFalse(predicate("cq:Page").test(tree.getChild("jcr:content")));
+    }
+
+    @Test
+    public void testPrimaryTypeSupertype() {
+        Assert.assertTrue(predicate("nt:unstructured").test(tree));
+        Assert.assertTrue(predicate("nt:base").test(tree));
+        Assert.assertFalse(predicate("cq:Type").test(tree));
+    }
+
+    @Test
+    public void testMixinType() {
+        ResourceMock resource = new ResourceMock(null, "resource");
+        resource.addChild(new PropertyResourceMock(resource, "jcr:primaryType", "jcr:otherType"));
+        resource.addChild(
+                new PropertyResourceMock(resource, "jcr:mixinTypes", new String[] { "jcr:someType", "cq:Type" }));
+        Assert.assertTrue(predicate("jcr:someType").test(resource));
+        Assert.assertTrue(predicate("cq:Page").test(resource));
+        Assert.assertFalse(predicate("cq:Other").test(resource));
+    }
+
+    private static ResourcePredicate predicate(String type) {
+        return new ResourcePredicate(type, null, Collections.<Attribute>emptyList(), new MockTypeResolver());
+    }
+}
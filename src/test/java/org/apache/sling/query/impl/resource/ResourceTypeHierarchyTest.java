@@ -0,0 +1,115 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.query.impl.resource;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResourceTypeHierarchyTest {
+
+    private static final String SCOPE = "admin:/apps/,/libs/";
+
+    private final Map<String, String> superTypes = new HashMap<>();
+
+    private int lookups = 0;
+
+    private final ResourceTypeHierarchy hierarchy = new ResourceTypeHierarchy(Long.MAX_VALUE / 2, 100);
+
+    @Test
+    public void testChain() {
+        superTypes.put("demo/text", "demo/base");
+        superTypes.put("demo/base", "foundation/text");
+        Assert.assertEquals(Arrays.asList("demo/text", "demo/base", "foundation/text"),
+                Arrays.asList(getTypes("demo/text").toArray()));
+        int count = lookups;
+        getTypes("demo/text");
+        Assert.assertEquals(count, lookups);
+    }
+
+    @Test
+    public void testCycle() {
+        superTypes.put("demo/a", "demo/b");
+        superTypes.put("demo/b", "demo/a");
+        Assert.assertEquals(Arrays.asList("demo/a", "demo/b"), Arrays.asList(getTypes("demo/a").toArray()));
+    }
+
+    @Test
+    public void testInvalidate() {
+        superTypes.put("demo/text", "demo/base");
+        Assert.assertFalse(getTypes("demo/text").contains("foundation/text"));
+        superTypes.put("demo/base", "foundation/text");
+        Assert.assertFalse(getTypes("demo/text").contains("foundation/text"));
+        new ResourceTypeChangeListener(hierarchy).onEvent(null);
+        Assert.assertTrue(getTypes("demo/text").contains("foundation/text"));
+    }
+
+    @Test
+    public void testExpiration() {
+        ResourceTypeHierarchy expiring = new ResourceTypeHierarchy(-1, 100);
+        superTypes.put("demo/text", "demo/base");
+        expiring.getTypes(SCOPE, "demo/text", this::getSuperType);
+        superTypes.put("demo/base", "foundation/text");
+        Assert.assertTrue(expiring.getTypes(SCOPE, "demo/text", this::getSuperType).contains("foundation/text"));
+    }
+
+    @Test
+    public void testScopes() {
+        superTypes.put("demo/text", "demo/base");
+        Assert.assertTrue(getTypes("demo/text").contains("demo/base"));
+        Map<String, String> restricted = new HashMap<>();
+        Assert.assertFalse(hierarchy.getTypes("anonymous:/apps/,/libs/", "demo/text", restricted::get)
+                .contains("demo/base"));
+        Assert.assertTrue(getTypes("demo/text").contains("demo/base"));
+    }
+
+    @Test
+    public void testSizeLimit() {
+        ResourceTypeHierarchy limited = new ResourceTypeHierarchy(Long.MAX_VALUE / 2, 2);
+        for (int i = 0; i < 5; i++) {
+            limited.getTypes(SCOPE, "demo/type" + i, this::getSuperType);
+        }
+        Assert.assertEquals(2, limited.size());
+        int count = lookups;
+        limited.getTypes(SCOPE, "demo/type4", this::getSuperType);
+        Assert.assertEquals(count, lookups);
+    }
+
+    @Test
+    public void testExpiredEntriesArePurged() {
+        ResourceTypeHierarchy expiring = new ResourceTypeHierarchy(-1, 2);
+        for (int i = 0; i < 5; i++) {
+            expiring.getTypes("user" + i + ":/apps/", "demo/text", this::getSuperType);
+        }
+        Assert.assertEquals(1, expiring.size());
+    }
+
+    private Set<String> getTypes(String type) {
+        return hierarchy.getTypes(SCOPE, type, this::getSuperType);
+    }
+
+    private String getSuperType(String type) {
+        lookups++;
+        return superTypes.get(type);
+    }
+}
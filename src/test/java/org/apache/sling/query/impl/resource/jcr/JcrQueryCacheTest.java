@@ -0,0 +1,151 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.resource.jcr;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
+
+import org.apache.sling.query.api.QueryOptions;
+import org.apache.sling.query.impl.resource.jcr.query.JcrQuery;
+import org.apache.sling.query.impl.resource.jcr.query.JcrQueryBuilder;
+import org.apache.sling.query.impl.selector.parser.SelectorParser;
+import org.apache.sling.query.impl.selector.parser.SelectorSegment;
+import org.apache.sling.query.mock.MockTypeResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JcrQueryCacheTest {
+
+    private final AtomicInteger createdQueries = new AtomicInteger();
+
+    @Test
+    public void testSameShapeSharesStatement() {
+        JcrQueryCache cache = JcrQueryCache.get(createSession());
+        String first = getStatement(cache, "cq:Page[jcr:title=first]");
+        String second = getStatement(cache, "cq:Page[jcr:title=second]");
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(0, createdQueries.get());
+    }
+
+    @Test
+    public void testSessionIsNotPinned() throws InterruptedException {
+        WeakReference<Session> session = executeQuery();
+        Assert.assertEquals(1, createdQueries.get());
+        for (int i = 0; i < 100 && session.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(session.get());
+    }
+
+    @Test
+    public void testCacheIsScopedToSession() throws Exception {
+        Session session = createSession();
+        Assert.assertSame(JcrQueryCache.get(session), JcrQueryCache.get(session));
+        Assert.assertFalse(JcrQueryCache.get(session) == JcrQueryCache.get(createSession()));
+    }
+
+    @Test
+    public void testTemplateIsBuiltOnce() {
+        JcrQueryCache cache = JcrQueryCache.get(createSession());
+        List<SelectorSegment> segments = parse("cq:Page[jcr:title=first]");
+        AtomicInteger built = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            cache.getTemplate(segments, s -> {
+                built.incrementAndGet();
+                return new JcrQueryBuilder(new MockTypeResolver()).build(s);
+            });
+        }
+        Assert.assertEquals(1, built.get());
+    }
+
+    // the prepared query refers to its session, as the repository ones do
+    private WeakReference<Session> executeQuery() {
+        Session session = createSession();
+        JcrQuery query = JcrQueryCache.get(session).getTemplate(parse("cq:Page"),
+                s -> new JcrQueryBuilder(new MockTypeResolver()).build(s));
+        new JcrQueryIterator(query, Collections.singletonList("/content"), null, session, 0, QueryOptions.DEFAULT)
+                .hasNext();
+        return new WeakReference<>(session);
+    }
+
+    private String getStatement(JcrQueryCache cache, String selector) {
+        JcrQuery query = cache.getTemplate(parse(selector), s -> new JcrQueryBuilder(new MockTypeResolver()).build(s));
+        return query.getStatement("/content");
+    }
+
+    private static List<SelectorSegment> parse(String selector) {
+        return SelectorParser.parse(selector).get(0).getSegments();
+    }
+
+    private Session createSession() {
+        AtomicReference<Session> session = new AtomicReference<>();
+        RowIterator rows = proxy(RowIterator.class, (method, args) -> "hasNext".equals(method) ? false : null);
+        QueryResult result = proxy(QueryResult.class, (method, args) -> rows);
+        QueryManager queryManager = proxy(QueryManager.class, (method, args) -> {
+            if ("createQuery".equals(method)) {
+                createdQueries.incrementAndGet();
+                return proxy(Query.class, (m, a) -> {
+                    if ("getSession".equals(m)) {
+                        return session.get();
+                    }
+                    return "execute".equals(m) ? result : null;
+                });
+            }
+            return null;
+        });
+        Workspace workspace = proxy(Workspace.class, (method, args) -> queryManager);
+        session.set(proxy(Session.class, (method, args) -> {
+            if ("isLive".equals(method)) {
+                return true;
+            }
+            return "getWorkspace".equals(method) ? workspace : null;
+        }));
+        return session.get();
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    }
+                    return handler.invoke(method.getName(), args);
+                }));
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+}
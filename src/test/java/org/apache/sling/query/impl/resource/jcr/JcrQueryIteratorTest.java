@@ -0,0 +1,108 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.resource.jcr;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+
+import org.apache.sling.api.SlingException;
+import org.apache.sling.query.api.QueryOptions;
+import org.apache.sling.query.api.QueryOptions.Traversal;
+import org.apache.sling.query.impl.resource.jcr.query.JcrQuery;
+import org.apache.sling.query.impl.resource.jcr.query.JcrQueryBuilder;
+import org.apache.sling.query.impl.selector.parser.SelectorParser;
+import org.apache.sling.query.mock.MockTypeResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JcrQueryIteratorTest {
+
+    private static final QueryOptions TRAVERSAL_FAIL = QueryOptions.DEFAULT.withTraversal(Traversal.FAIL);
+
+    @Test
+    public void testTraversalFailureIsThrown() {
+        JcrQueryIterator iterator = createIterator();
+        try {
+            iterator.hasNext();
+            Assert.fail("The failed query should be reported");
+        } catch (SlingException e) {
+            Assert.assertTrue(e.getMessage().contains("OPTION(TRAVERSAL FAIL)"));
+            Assert.assertTrue(e.getCause() instanceof InvalidQueryException);
+        }
+    }
+
+    @Test
+    public void testTraversalFailureIsThrownByCount() {
+        try {
+            createIterator().count();
+            Assert.fail("The failed query should be reported");
+        } catch (SlingException e) {
+            Assert.assertTrue(e.getMessage().contains("OPTION(TRAVERSAL FAIL)"));
+        }
+    }
+
+    private static JcrQueryIterator createIterator() {
+        JcrQuery query = new JcrQueryBuilder(new MockTypeResolver())
+                .build(SelectorParser.parse("cq:Page").get(0).getSegments());
+        return new JcrQueryIterator(query, Collections.singletonList("/content"), null, createSession(), 0,
+                TRAVERSAL_FAIL);
+    }
+
+    // a session of the repository which refuses to traverse the content
+    private static Session createSession() {
+        Query query = proxy(Query.class, (method, args) -> {
+            if ("execute".equals(method)) {
+                throw new InvalidQueryException("Traversal query (query without index) not allowed");
+            }
+            return null;
+        });
+        QueryManager queryManager = proxy(QueryManager.class, (method, args) -> query);
+        Workspace workspace = proxy(Workspace.class, (method, args) -> queryManager);
+        return proxy(Session.class, (method, args) -> {
+            if ("isLive".equals(method)) {
+                return true;
+            }
+            return "getWorkspace".equals(method) ? workspace : null;
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    }
+                    return handler.invoke(method.getName(), args);
+                }));
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args) throws Exception;
+    }
+}
@@ -0,0 +1,81 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.query.impl.selector;
+
+import static org.apache.sling.query.SlingQuery.$;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.query.SlingQuery;
+import org.apache.sling.query.TestUtils;
+import org.apache.sling.query.api.SearchStrategy;
+import org.apache.sling.query.impl.resource.ResourceTreeProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledSelectorTest {
+
+    private static final String[] SELECTORS = { "cq:Page", "#home", "[jcr:title=Home]", "cq:PageContent[jcr:title]",
+            "cq:Page:parent", "nt:unstructured:empty", "cq:Page:not(#home)",
+            "cq:Page:has(cq:PageContent[jcr:title=Home])", ":contains(sample)", "cq:Page#application, #home" };
+
+    private Resource tree = TestUtils.getTree();
+
+    private ResourceTreeProvider provider = new ResourceTreeProvider(null);
+
+    @Test
+    public void testSameAsIterators() {
+        SlingQuery all = $(tree).searchStrategy(SearchStrategy.DFS).find();
+        for (String selector : SELECTORS) {
+            // the no-op positional modifier disables the compiled predicate
+            List<String> expected = paths(all.filter(selector.replace(",", ":gt(-1),") + ":gt(-1)"));
+            Assert.assertFalse(selector, expected.isEmpty());
+            Assert.assertEquals(selector, expected, paths(all.filter(selector)));
+
+            SelectorFunction<Resource> function = new SelectorFunction<>(selector, provider, SearchStrategy.DFS);
+            List<String> tested = new ArrayList<>();
+            for (Resource resource : all) {
+                if (function.test(resource)) {
+                    tested.add(resource.getPath());
+                }
+            }
+            Assert.assertEquals(selector, new LinkedHashSet<>(expected).size(), tested.size());
+        }
+    }
+
+    @Test
+    public void testPush() {
+        SlingQuery query = $(tree).searchStrategy(SearchStrategy.DFS).find("cq:Page:not(#home)");
+        List<String> pushed = new ArrayList<>();
+        query.forEach(r -> pushed.add(r.getPath()));
+        Assert.assertEquals(paths(query), pushed);
+    }
+
+    private static List<String> paths(SlingQuery query) {
+        List<String> paths = new ArrayList<>();
+        for (Resource resource : query.asList()) {
+            paths.add(resource.getPath());
+        }
+        return paths;
+    }
+}
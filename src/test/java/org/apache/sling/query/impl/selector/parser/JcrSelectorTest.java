@@ -19,8 +19,14 @@
 
 package org.apache.sling.query.impl.selector.parser;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.sling.query.api.QueryOptions;
+import org.apache.sling.query.api.QueryOptions.Traversal;
+import org.apache.sling.query.impl.resource.jcr.query.JcrQuery;
 import org.apache.sling.query.impl.resource.jcr.query.JcrQueryBuilder;
 import org.apache.sling.query.mock.MockTypeResolver;
 import org.junit.Assert;
@@ -121,10 +127,219 @@ public class JcrSelectorTest {
     @Test
     public void parseAttributeWithSubresource() {
         final String selector = "cq:Page[jcr:content/cq:template=xyz]";
-        final String jcrQuery = "SELECT * FROM [cq:Page] AS s WHERE ISDESCENDANTNODE('/content')";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s WHERE (ISDESCENDANTNODE('/content') AND s.[jcr:content/cq:template] = 'xyz')";
         Assert.assertEquals(jcrQuery, parse(selector, "/content"));
     }
 
+    @Test
+    public void parseAttributeWithDeepSubresource() {
+        final String selector = "cq:Page[jcr:content/par/sling:resourceType^=foundation][jcr:content/hideInNav]";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s WHERE (s.[jcr:content/par/sling:resourceType] LIKE 'foundation%' AND s.[jcr:content/hideInNav] IS NOT NULL)";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void parseAttributeWithUnsupportedPath() {
+        final String selector = "cq:Page[../cq:template=xyz][/jcr:content/title=abc]";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void parseNot() {
+        final String selector = "cq:Page:not([title^=Draft])";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s WHERE NOT (s.[title] LIKE 'Draft%')";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void parseNotSkipsTypedComparisons() {
+        final String selector = "cq:Page:not([hidden=true], [count!=01])";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void parseNotWithTypeAndName() {
+        final String selector = "foundation/components/parsys:not(cq:Page#home, foundation/components/text)";
+        final String jcrQuery = "SELECT * FROM [nt:base] AS s WHERE (s.[sling:resourceType] = 'foundation/components/parsys' AND NOT (((s.[jcr:primaryType] = 'cq:Page' OR s.[jcr:mixinTypes] = 'cq:Page') AND NAME(s) = 'home')) AND NOT (s.[sling:resourceType] = 'foundation/components/text'))";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void parseNotExists() {
+        final String selector = "[key1=value]:not([key2])";
+        final String jcrQuery = "SELECT * FROM [nt:base] AS s WHERE (s.[key1] = 'value' AND NOT (s.[key2] IS NOT NULL))";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void parseNotSkipsInexactAlternatives() {
+        final String selector = "cq:Page:not([key1~=value], [../key2=value], [key3^=val_ue], :first, a b, [key4*=value])";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s WHERE NOT (s.[key4] LIKE '%value%')";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void parseNotAfterPositionalModifier() {
+        final String selector = "cq:Page:not([key1^=value]):first:not([key2^=value])";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s WHERE NOT (s.[key1] LIKE 'value%')";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void parseHas() {
+        final String selector = "cq:Page:has(foundation/components/text[text=value][key!=value][title])";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s INNER JOIN [nt:base] AS h1 ON ISDESCENDANTNODE(h1, s) WHERE (ISDESCENDANTNODE(s, '/content') AND h1.[text] = 'value')";
+        Assert.assertEquals(jcrQuery, parse(selector, "/content"));
+    }
+
+    @Test
+    public void parseHasPrimaryType() {
+        final String selector = "[key1=value]:has(nt:unstructured#par):has(cq:Page)";
+        final String jcrQuery = "SELECT * FROM [nt:base] AS s INNER JOIN [nt:unstructured] AS h1 ON ISDESCENDANTNODE(h1, s) INNER JOIN [cq:Page] AS h2 ON ISDESCENDANTNODE(h2, s) WHERE (s.[key1] = 'value' AND NAME(h1) = 'par')";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void parseHasNotPushedDown() {
+        Assert.assertEquals("SELECT * FROM [cq:Page] AS s", parse("cq:Page:has(a > b)", "/"));
+        Assert.assertEquals("SELECT * FROM [cq:Page] AS s", parse("cq:Page:has(a, b)", "/"));
+        Assert.assertEquals("SELECT * FROM [cq:Page] AS s", parse("cq:Page:has([key~=value])", "/"));
+        Assert.assertEquals("SELECT * FROM [cq:Page] AS s", parse("cq:Page:first:has(a)", "/"));
+        Assert.assertEquals("SELECT * FROM [nt:base] AS s WHERE (s.[key] = 'value' OR s.[sling:resourceType] = 'b')",
+                parse("[key=value]:has(a), b", "/"));
+    }
+
+    @Test
+    public void hasIsPushedDown() {
+        JcrQueryBuilder builder = new JcrQueryBuilder(new MockTypeResolver());
+        SelectorSegment segment = SelectorParser.parse("cq:Page:has(cq:Page#a[b^=c]):last:has(cq:Page)").get(0)
+                .getSegments().get(0);
+        Assert.assertEquals(true, builder.isPushedDown(segment, segment.getModifiers().get(0)));
+        Assert.assertEquals(false, builder.isPushedDown(segment, segment.getModifiers().get(1)));
+        Assert.assertEquals(false, builder.isPushedDown(segment, segment.getModifiers().get(2)));
+    }
+
+    @Test
+    public void hasWithInexactConditionsIsNotPushedDown() {
+        JcrQueryBuilder builder = new JcrQueryBuilder(new MockTypeResolver());
+        for (String selector : Arrays.asList("cq:Page:has(a)", "cq:Page:has([key])", "cq:Page:has([key=value])",
+                "cq:Page:has([key!=value])")) {
+            SelectorSegment segment = SelectorParser.parse(selector).get(0).getSegments().get(0);
+            Assert.assertEquals(false, builder.isPushedDown(segment, segment.getModifiers().get(0)));
+        }
+    }
+
+    @Test
+    public void bindValues() {
+        JcrQuery query = build("foundation/components/parsys#par[key1^=value'1]:not(cq:Page)");
+        final String jcrQuery = "SELECT * FROM [nt:base] AS s WHERE (ISDESCENDANTNODE('/content/it''s') AND (s.[sling:resourceType] = $value1 AND NAME(s) = $value2 AND s.[key1] LIKE $value3 AND NOT ((s.[jcr:primaryType] = $value4 OR s.[jcr:mixinTypes] = $value4))))";
+        Assert.assertEquals(jcrQuery, query.getStatement("/content/it's"));
+
+        Map<String, String> bindings = new LinkedHashMap<>();
+        bindings.put("value1", "foundation/components/parsys");
+        bindings.put("value2", "par");
+        bindings.put("value3", "value'1%");
+        bindings.put("value4", "cq:Page");
+        Assert.assertEquals(bindings, query.getBindings());
+    }
+
+    @Test
+    public void sameStatementForDifferentValues() {
+        JcrQuery query1 = build("foundation/components/parsys[key1=value1]:has([key2$=value2])");
+        JcrQuery query2 = build("foundation/components/text[key1=xyz]:has([key2$=abc])");
+        Assert.assertEquals(query1.getStatement("/content"), query2.getStatement("/content"));
+        Assert.assertEquals("%abc", query2.getBindings().get("value1"));
+        Assert.assertEquals("xyz", query2.getBindings().get("value3"));
+    }
+
+    @Test
+    public void multipleRoots() {
+        JcrQuery query = build("cq:Page[key=value]");
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s WHERE ((ISDESCENDANTNODE('/content/a') OR ISDESCENDANTNODE('/content/b')) AND s.[key] = $value1)";
+        Assert.assertEquals(jcrQuery, query.getStatement(Arrays.asList("/content/a", "/content/b")));
+        Assert.assertEquals("SELECT * FROM [cq:Page] AS s WHERE s.[key] = $value1",
+                query.getStatement(Arrays.asList("/content/a", "/")));
+    }
+
+    @Test
+    public void multipleRootsWithJoin() {
+        JcrQuery query = build("cq:Page:has(nt:unstructured)");
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s INNER JOIN [nt:unstructured] AS h1 ON ISDESCENDANTNODE(h1, s) WHERE (ISDESCENDANTNODE(s, '/content/a') OR ISDESCENDANTNODE(s, '/content/b'))";
+        Assert.assertEquals(jcrQuery, query.getStatement(Arrays.asList("/content/a", "/content/b")));
+    }
+
+    @Test
+    public void queryOptions() {
+        JcrQuery query = build("cq:Page");
+        QueryOptions options = QueryOptions.DEFAULT.withTraversal(Traversal.FAIL).withIndexTag("pages")
+                .withLimit(10);
+        Assert.assertEquals("SELECT * FROM [cq:Page] AS s WHERE ISDESCENDANTNODE('/content') OPTION(TRAVERSAL FAIL, INDEX TAG pages)",
+                query.getStatement(Arrays.asList("/content"), options));
+        Assert.assertEquals("SELECT * FROM [cq:Page] AS s OPTION(INDEX TAG pages)",
+                query.getStatement(Arrays.asList("/"), QueryOptions.DEFAULT.withIndexTag("pages")));
+        Assert.assertEquals("SELECT * FROM [cq:Page] AS s",
+                query.getStatement(Arrays.asList("/"), QueryOptions.DEFAULT.withLimit(10)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidIndexTag() {
+        QueryOptions.DEFAULT.withIndexTag("pages) OR (1=1");
+    }
+
+    @Test
+    public void fullText() {
+        final String selector = "cq:Page:contains(Sample -e-mail \"it's\")";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s WHERE CONTAINS(s.*, 'sample e mail it s')";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void propertyFullText() {
+        final String selector = "cq:Page:contains(jcr:content/jcr:title=Sample e-mail):first";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s WHERE CONTAINS(s.[jcr:content/jcr:title], 'sample e mail')";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void fullTextAfterPositionalModifier() {
+        final String selector = "cq:Page:first:contains(sample)";
+        final String jcrQuery = "SELECT * FROM [cq:Page] AS s";
+        Assert.assertEquals(jcrQuery, parse(selector, "/"));
+    }
+
+    @Test
+    public void exactQuery() {
+        Assert.assertTrue(isExact("cq:Page[jcr:content/jcr:title^=Home]"));
+        Assert.assertTrue(isExact("cq:Page#home"));
+        Assert.assertTrue(isExact("cq:Page:has(nt:unstructured[key^=value])"));
+        Assert.assertFalse(isExact("cq:Page:first"));
+        Assert.assertFalse(isExact("cq:Page:contains(sample)"));
+        Assert.assertFalse(isExact("nt:base[key~=value]"));
+        Assert.assertFalse(isExact("cq:Page, nt:unstructured"));
+    }
+
+    @Test
+    public void inexactQuery() {
+        Assert.assertFalse(isExact("foundation/components/parsys#par"));
+        Assert.assertFalse(isExact("cq:Page[jcr:content]"));
+        Assert.assertFalse(isExact("cq:Page[key=01]"));
+        Assert.assertFalse(isExact("cq:Page[key!=01]"));
+    }
+
+    static boolean isExact(String selector) {
+        List<Selector> selectors = SelectorParser.parse(selector);
+        List<SelectorSegment> segments = SelectorParser.getFirstSegmentFromEachSelector(selectors);
+        return new JcrQueryBuilder(new MockTypeResolver()).isExact(segments);
+    }
+
+    static JcrQuery build(String selector) {
+        List<Selector> selectors = SelectorParser.parse(selector);
+        List<SelectorSegment> segments = SelectorParser.getFirstSegmentFromEachSelector(selectors);
+        return new JcrQueryBuilder(new MockTypeResolver()).build(segments);
+    }
+
     static String parse(String selector, String root) {
         List<Selector> selectors = SelectorParser.parse(selector);
         List<SelectorSegment> segments = SelectorParser.getFirstSegmentFromEachSelector(selectors);
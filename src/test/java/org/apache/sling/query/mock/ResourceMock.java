@@ -30,6 +30,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceMetadata;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
 
 public class ResourceMock implements Resource {
 
@@ -88,7 +90,9 @@ public class ResourceMock implements Resource {
     @SuppressWarnings("unchecked")
     @Override
     public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
-        if (type.isAssignableFrom(Map.class)) {
+        if (type == ValueMap.class) {
+            return (AdapterType) new ValueMapDecorator(adaptTo(Map.class));
+        } else if (type.isAssignableFrom(Map.class)) {
             Map<String, Object> map = new LinkedHashMap<String, Object>();
             for (Entry<String, Resource> e : children.entrySet()) {
                 Resource o = e.getValue();
@@ -109,6 +113,7 @@ public class ResourceMock implements Resource {
     @Override
     public boolean isResourceType(String resourceType) {
         return StringUtils.isNotBlank(resourceType) && (resourceType.equals(getPropertyAsString("sling:resourceType"))
+                || resourceType.equals(getPropertyAsString("sling:resourceSuperType"))
                 || resourceType.equals(getPropertyAsString("jcr:primaryType")));
     }
 
@@ -132,7 +137,7 @@ public class ResourceMock implements Resource {
 
     @Override
     public String getResourceSuperType() {
-        throw new UnsupportedOperationException();
+        return getPropertyAsString("sling:resourceSuperType");
     }
 
     @Override